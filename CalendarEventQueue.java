@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Calendar queue (Brown, 1988), O(1) amortized enqueue and dequeue.
+ * Events are hashed into buckets ("days") by time, and the dequeue walks the days in order
+ * like a desk calendar. Every bucket is kept sorted with its earliest event at the end.
+ * The number of buckets follows the number of events, and whenever it is resized the bucket
+ * width is re-estimated from the spacing between the earliest pending events.
+ */
+public class CalendarEventQueue implements EventQueue {
+
+    private static final int MIN_BUCKETS = 2;
+    private static final int SAMPLE_SIZE = 25;      // events used to estimate the bucket width
+
+    private ArrayList<Event>[] buckets;
+    private double width;           // time covered by one bucket, in ns
+    private int size;
+
+    private int lastBucket;         // bucket the dequeue is currently looking at
+    private double bucketTop;       // upper bound of the current day in lastBucket
+    private double lastTime;        // time of the last located event
+
+    CalendarEventQueue() {
+        this.size = 0;
+        init(MIN_BUCKETS, SimTime.NANOS_PER_MS, 0);
+    }
+
+    private void init(int bucketCount, double bucketWidth, double startTime) {
+        this.buckets = newBuckets(bucketCount);
+        for(int i = 0; i < bucketCount; i++)
+            this.buckets[i] = new ArrayList<>();
+        this.width = bucketWidth;
+        moveTo(startTime);
+    }
+
+    // arrays of a generic type can only be made unbounded and cast
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Event>[] newBuckets(int count) {
+        return (ArrayList<Event>[]) new ArrayList<?>[count];
+    }
+
+    /**
+     * point the calendar at the day containing time
+     */
+    private void moveTo(double time) {
+        long day = (long) Math.floor(time / this.width);
+        this.lastTime = time;
+        this.lastBucket = (int) Math.floorMod(day, (long) this.buckets.length);
+        // the extra half day is from the original paper, it covers rounding on the day boundary
+        this.bucketTop = (day + 1.5) * this.width;
+    }
+
+    public void add(Event e) {
+        // an event earlier than where the dequeue has scanned to (only possible after a peek),
+        // every pending event is later so it is safe to rewind the calendar to it
+        if(e.getTime() < this.lastTime)
+            moveTo(e.getTime());
+
+        insert(e);
+        this.size++;
+
+        if(this.size > 2 * this.buckets.length)
+            resize(2 * this.buckets.length);
+    }
+
+    private void insert(Event e) {
+        long day = (long) Math.floor(e.getTime() / this.width);
+        ArrayList<Event> bucket = this.buckets[(int) Math.floorMod(day, (long) this.buckets.length)];
+
+        // sorted from latest to earliest, events at the same time by their tie-break
+        int low = 0;
+        int high = bucket.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(bucket.get(mid).compareTo(e) > 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        bucket.add(low, e);
+    }
+
+    /**
+     * walks the calendar until the bucket holding the earliest event
+     * @return index of that bucket, -1 if empty
+     */
+    private int locate() {
+        if(this.size == 0)
+            return -1;
+
+        int i = this.lastBucket;
+        for(int checked = 0; checked < this.buckets.length; checked++) {
+            ArrayList<Event> bucket = this.buckets[i];
+            if(!bucket.isEmpty() && bucket.get(bucket.size() - 1).getTime() < this.bucketTop) {
+                this.lastBucket = i;
+                this.lastTime = bucket.get(bucket.size() - 1).getTime();
+                return i;
+            }
+            i++;
+            if(i == this.buckets.length)
+                i = 0;
+            this.bucketTop += this.width;
+        }
+
+        // went around a whole year without finding anything, the events are sparse
+        // so look for the earliest one directly and jump there
+        double minTime = Double.MAX_VALUE;
+        int minBucket = -1;
+        for(int j = 0; j < this.buckets.length; j++) {
+            ArrayList<Event> bucket = this.buckets[j];
+            if(!bucket.isEmpty() && bucket.get(bucket.size() - 1).getTime() < minTime) {
+                minTime = bucket.get(bucket.size() - 1).getTime();
+                minBucket = j;
+            }
+        }
+        moveTo(minTime);
+        this.lastBucket = minBucket;
+        return minBucket;
+    }
+
+    public Event poll() {
+        int i = locate();
+        if(i == -1)
+            return null;
+
+        ArrayList<Event> bucket = this.buckets[i];
+        Event e = bucket.remove(bucket.size() - 1);
+        this.size--;
+
+        if(this.size < this.buckets.length / 2 && this.buckets.length > MIN_BUCKETS)
+            resize(this.buckets.length / 2);
+        return e;
+    }
+
+    public Event peek() {
+        int i = locate();
+        if(i == -1)
+            return null;
+        ArrayList<Event> bucket = this.buckets[i];
+        return bucket.get(bucket.size() - 1);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void forEach(Consumer<Event> action) {
+        for(ArrayList<Event> bucket: this.buckets)
+            bucket.forEach(action);
+    }
+
+    /**
+     * rebuilds the calendar with a new number of buckets and a width estimated from the queue
+     */
+    private void resize(int bucketCount) {
+        Event[] events = new Event[this.size];
+        int n = 0;
+        for(ArrayList<Event> bucket: this.buckets) {
+            for(Event e: bucket)
+                events[n++] = e;
+        }
+
+        double newWidth = estimateWidth(events);
+        init(bucketCount, newWidth, this.lastTime);
+        for(Event e: events)
+            insert(e);
+    }
+
+    /**
+     * Brown's heuristic: average the gaps between the earliest few events, drop the gaps that
+     * are more than twice the average, and make a day three times the remaining average.
+     */
+    private double estimateWidth(Event[] events) {
+        if(events.length < 2)
+            return this.width;
+
+        int sampleCount = Math.min(SAMPLE_SIZE, events.length);
+        double[] times = new double[events.length];
+        for(int i = 0; i < events.length; i++)
+            times[i] = events[i].getTime();
+        selectSmallest(times, sampleCount);
+        Arrays.sort(times, 0, sampleCount);
+
+        double total = times[sampleCount - 1] - times[0];
+        double average = total / (sampleCount - 1);
+        if(average <= 0)
+            return this.width;
+
+        double kept = 0;
+        int keptCount = 0;
+        for(int i = 1; i < sampleCount; i++) {
+            double gap = times[i] - times[i - 1];
+            if(gap <= 2 * average) {
+                kept += gap;
+                keptCount++;
+            }
+        }
+        if(keptCount == 0 || kept <= 0)
+            return 3 * average;
+        return 3 * (kept / keptCount);
+    }
+
+    /**
+     * partitions times so that its first k entries are the k smallest, expected O(n)
+     */
+    private static void selectSmallest(double[] times, int k) {
+        int left = 0;
+        int right = times.length - 1;
+        while(left < right) {
+            double pivot = times[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while(i <= j) {
+                while(times[i] < pivot)
+                    i++;
+                while(times[j] > pivot)
+                    j--;
+                if(i <= j) {
+                    double tmp = times[i];
+                    times[i] = times[j];
+                    times[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if(k - 1 <= j)
+                right = j;
+            else if(k - 1 >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * State an optimistic partition can roll back, see TimeWarpScheduler.
+ * A saved state is only handed back to the object that made it.
+ */
+public interface Checkpointable {
+
+    Object saveState();
+
+    void restoreState(Object state);
+
+    /**
+     * nothing before gvt can be rolled back anymore, side effects held back until then can happen now
+     */
+    default void commit(long gvt) {
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Binary heap event queue over columns of primitives, for runs with a great many pending events.
+ * An event is a row: its time, its (origin, sequence) tie-break packed into a long, its type, node
+ * index and hop packed into an int, and its packet. The heap is the rows themselves, so a sift
+ * compares times in a long[] instead of following a reference per event, and a pending arrival
+ * takes 24 bytes rather than an Event (64 bytes) plus the slot pointing at it.
+ * The Event a packed row came in is reset and goes back to the scheduler's pool on add, and one is
+ * taken from the pool on poll. Links don't keep arrivals in flight with this queue (see
+ * Scheduler.packsArrivals), so every arrival is a row. Events that still name a link or don't fit
+ * the packed fields are kept as the Event itself, others may hold on to those.
+ */
+public class ColumnEventQueue implements EventQueue {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final Event.EventType[] TYPES = Event.EventType.values();
+
+    // packed word: type ordinal in bits 0-1, node index + 1 in bits 2-17 (0 for none), hop in bits 18-31
+    private static final int TYPE_MASK = 3;
+    private static final int NODE_SHIFT = 2;
+    private static final int NODE_MASK = (1 << 16) - 1;
+    private static final int HOP_SHIFT = 18;
+    private static final int MAX_HOP = (1 << 14) - 1;
+
+    // packed order: origin (a node index, below 2^23) above the low 40 bits, sequence in them
+    private static final int SEQUENCE_BITS = 40;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private long[] times;
+    private long[] orders;
+    private int[] words;
+    private Object[] refs;      // the packet of a packed row (null for a time wait), the Event of a kept one
+    private int size;
+
+    private Node[] nodes;       // by index, the nodes packed rows arrive at
+    private ObjectPool<Event> pool;
+    private Event view;         // what peek hands out for a packed head
+
+    ColumnEventQueue(ObjectPool<Event> pool) {
+        this.times = new long[INITIAL_CAPACITY];
+        this.orders = new long[INITIAL_CAPACITY];
+        this.words = new int[INITIAL_CAPACITY];
+        this.refs = new Object[INITIAL_CAPACITY];
+        this.size = 0;
+        this.nodes = new Node[0];
+        this.pool = pool;
+        this.view = new Event(null, 0);
+    }
+
+    public void add(Event e) {
+        if(this.size == this.times.length)
+            grow();
+        long time = e.getTime();
+        long order = (long) e.getOrigin() << SEQUENCE_BITS | e.getSequence();
+        int word = pack(e);
+        if(word == -1) {
+            siftUp(this.size++, time, order, 0, e);
+            return;
+        }
+        siftUp(this.size++, time, order, word, e.getPacket());
+        // the row holds the event's reference on its packet now
+        e.reset(null, 0, 0, null, 0, null, null);
+        this.pool.release(e);
+    }
+
+    public Event poll() {
+        if(this.size == 0)
+            return null;
+        Object ref = this.refs[0];
+        Event e = ref instanceof Event ? (Event) ref : toEvent(0, this.pool.acquire());
+
+        int last = --this.size;
+        if(last > 0)
+            siftDown(0, this.times[last], this.orders[last], this.words[last], this.refs[last]);
+        this.refs[last] = null;
+        return e;
+    }
+
+    /**
+     * the event returned for a packed head is only good until the next add or poll
+     */
+    public Event peek() {
+        if(this.size == 0)
+            return null;
+        Object ref = this.refs[0];
+        return ref instanceof Event ? (Event) ref : toEvent(0, this.view);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * packed rows are handed out as new events, they aren't taken from or given back to the pool
+     */
+    public void forEach(Consumer<Event> action) {
+        for(int row = 0; row < this.size; row++) {
+            Object ref = this.refs[row];
+            action.accept(ref instanceof Event ? (Event) ref : toEvent(row, new Event(null, 0)));
+        }
+    }
+
+    /**
+     * @return e's type, node and hop as a packed word, -1 if e has to be kept as it is
+     */
+    private int pack(Event e) {
+        if(e.getLink() != null || e.getSequenceNo() != 0 || e.getLength() != 0 || e.getType() == null || e.getHop() > MAX_HOP)
+            return -1;
+
+        int node = 0;
+        Node dest = e.getDestination();
+        if(dest != null) {
+            int index = dest.getIndex();
+            if(index < 0 || index >= NODE_MASK)
+                return -1;
+            if(index >= this.nodes.length)
+                this.nodes = Arrays.copyOf(this.nodes, Math.max(index + 1, this.nodes.length * 2));
+            if(this.nodes[index] == null)
+                this.nodes[index] = dest;
+            else if(this.nodes[index] != dest)
+                return -1;
+            node = index + 1;
+        }
+        return e.getType().ordinal() | node << NODE_SHIFT | e.getHop() << HOP_SHIFT;
+    }
+
+    // fills e with the packed row
+    private Event toEvent(int row, Event e) {
+        int word = this.words[row];
+        int node = (word >>> NODE_SHIFT) & NODE_MASK;
+        e.reset((SimplePacket) this.refs[row], 0, 0, TYPES[word & TYPE_MASK], this.times[row], node == 0 ? null : this.nodes[node - 1], null);
+        e.setHop(word >>> HOP_SHIFT);
+        e.stamp((int) (this.orders[row] >>> SEQUENCE_BITS), this.orders[row] & SEQUENCE_MASK);
+        return e;
+    }
+
+    private static boolean before(long time, long order, long otherTime, long otherOrder) {
+        return time < otherTime || (time == otherTime && order < otherOrder);
+    }
+
+    // moves the hole at row up until the given row fits there
+    private void siftUp(int row, long time, long order, int word, Object ref) {
+        while(row > 0) {
+            int parent = (row - 1) >>> 1;
+            if(!before(time, order, this.times[parent], this.orders[parent]))
+                break;
+            move(parent, row);
+            row = parent;
+        }
+        set(row, time, order, word, ref);
+    }
+
+    // moves the hole at row down until the given row fits there
+    private void siftDown(int row, long time, long order, int word, Object ref) {
+        int half = this.size >>> 1;
+        while(row < half) {
+            int child = 2 * row + 1;
+            int right = child + 1;
+            if(right < this.size && before(this.times[right], this.orders[right], this.times[child], this.orders[child]))
+                child = right;
+            if(!before(this.times[child], this.orders[child], time, order))
+                break;
+            move(child, row);
+            row = child;
+        }
+        set(row, time, order, word, ref);
+    }
+
+    private void move(int from, int to) {
+        this.times[to] = this.times[from];
+        this.orders[to] = this.orders[from];
+        this.words[to] = this.words[from];
+        this.refs[to] = this.refs[from];
+    }
+
+    private void set(int row, long time, long order, int word, Object ref) {
+        this.times[row] = time;
+        this.orders[row] = order;
+        this.words[row] = word;
+        this.refs[row] = ref;
+    }
+
+    private void grow() {
+        int capacity = this.times.length * 2;
+        this.times = Arrays.copyOf(this.times, capacity);
+        this.orders = Arrays.copyOf(this.orders, capacity);
+        this.words = Arrays.copyOf(this.words, capacity);
+        this.refs = Arrays.copyOf(this.refs, capacity);
+    }
+}
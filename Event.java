@@ -4,8 +4,14 @@ public class Event implements Comparable<Event>{
     private int seqNo;
     private int length;
     private EventType type;
-    private double time;        // the time this event is happening at
+    private long time;          // the time this event is happening at, in ns
     private Node destination;   // the arrival node (not necessarily the end destination, just the next node on the link), null for timeout check
+    private Link link;          // link holding this arrival in its in-flight queue, null if scheduled directly
+    private int hop;            // with source routing, index in the packet's route of the link the arrival node sends on
+
+    // tie-break between events at the same time, see Scheduler.stamp
+    private int origin;         // index of the node that made it
+    private long sequence;      // order that node made it in
 
     public static enum EventType {
         ARRIVE,
@@ -14,15 +20,21 @@ public class Event implements Comparable<Event>{
     }
 
     // for arrive
-    Event(SimplePacket packet, EventType type, double time, Node dest) {
+    Event(SimplePacket packet, EventType type, long time, Node dest) {
         this.packet = packet;
         this.type = type;
         this.time = time;
         this.destination = dest;
     }
 
+    // for arrive through a link's in-flight queue
+    Event(SimplePacket packet, EventType type, long time, Node dest, Link link) {
+        this(packet, type, time, dest);
+        this.link = link;
+    }
+
     // for timeout
-    Event(SimplePacket packet, int sequenceNo, int length, EventType type, double time) {
+    Event(SimplePacket packet, int sequenceNo, int length, EventType type, long time) {
         this.packet = packet;
         this.seqNo = sequenceNo;
         this.length = length;
@@ -31,11 +43,55 @@ public class Event implements Comparable<Event>{
     }
 
     // for time wait
-    Event(EventType type, double time) {
+    Event(EventType type, long time) {
         this.type = type;
         this.time = time;
     }
 
+    /**
+     * refills a recycled event, fields that don't apply to the type are cleared
+     * @return this event
+     */
+    Event reset(SimplePacket packet, int sequenceNo, int length, EventType type, long time, Node dest, Link link) {
+        this.packet = packet;
+        this.seqNo = sequenceNo;
+        this.length = length;
+        this.type = type;
+        this.time = time;
+        this.destination = dest;
+        this.link = link;
+        this.hop = 0;
+        this.origin = 0;
+        this.sequence = 0;
+        return this;
+    }
+
+    /**
+     * gives the event its place among events at the same time, (time, origin, sequence) is a
+     * total order and every event queue polls in it (see QueueOrderCheck), so runs come out the
+     * same every time whatever the event queue
+     */
+    void stamp(int origin, long sequence) {
+        this.origin = origin;
+        this.sequence = sequence;
+    }
+
+    public int getOrigin() {
+        return this.origin;
+    }
+
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return this event
+     */
+    Event setHop(int hop) {
+        this.hop = hop;
+        return this;
+    }
+
     public SimplePacket getPacket() {
         return this.packet;
     }
@@ -44,7 +100,7 @@ public class Event implements Comparable<Event>{
         return this.type;
     }
 
-    public double getTime() {
+    public long getTime() {
         return this.time;
     }
 
@@ -52,6 +108,14 @@ public class Event implements Comparable<Event>{
         return this.destination;
     }
 
+    public Link getLink() {
+        return this.link;
+    }
+
+    public int getHop() {
+        return this.hop;
+    }
+
     public int getSequenceNo() {
         return this.seqNo;
     }
@@ -78,7 +142,11 @@ public class Event implements Comparable<Event>{
 
     @Override
     public int compareTo(Event other) {
-        return Double.compare(this.time, other.getTime());
+        if(this.time != other.time)
+            return Long.compare(this.time, other.time);
+        if(this.origin != other.origin)
+            return Integer.compare(this.origin, other.origin);
+        return Long.compare(this.sequence, other.sequence);
     }
 
     @Override
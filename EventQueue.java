@@ -0,0 +1,30 @@
+import java.util.function.Consumer;
+
+/**
+ * The pending event set behind the scheduler.
+ * Implementations hand events back in the order of Event.compareTo, by time and among events
+ * at the same time by the tie-break the scheduler stamped on them.
+ */
+public interface EventQueue {
+
+    public void add(Event e);
+
+    /**
+     * @return the earliest event, removed from the queue, or null if empty
+     */
+    public Event poll();
+
+    /**
+     * @return the earliest event without removing it, or null if empty
+     */
+    public Event peek();
+
+    public int size();
+
+    public boolean isEmpty();
+
+    /**
+     * runs action on every pending event, in no particular order and without changing the queue
+     */
+    public void forEach(Consumer<Event> action);
+}
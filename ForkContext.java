@@ -0,0 +1,86 @@
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps track of what has been copied while one run's state is copied into another, so shared
+ * objects stay shared in the copy: an event sitting both in the scheduler and in a link's
+ * in-flight queue, a packet held by an arrival and by its timeout, a timer handle kept by the sender.
+ * Nodes and links are registered by SimpleNetwork.copy, events and packets are copied the first
+ * time they are looked up.
+ */
+public class ForkContext {
+
+    private IdentityHashMap<Object, Object> copies;
+    private Scheduler scheduler;        // scheduler of the copy
+
+    ForkContext() {
+        this.copies = new IdentityHashMap<>();
+    }
+
+    public Scheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void put(Object original, Object copy) {
+        this.copies.put(original, copy);
+    }
+
+    public Node node(Node original) {
+        return original == null ? null : (Node) this.copies.get(original);
+    }
+
+    public Link link(Link original) {
+        return original == null ? null : (Link) this.copies.get(original);
+    }
+
+    public SimplePacket packet(SimplePacket original) {
+        if(original == null)
+            return null;
+        SimplePacket copy = (SimplePacket) this.copies.get(original);
+        if(copy == null) {
+            copy = new SimplePacket(original);
+            copy.setRoute(route(original.getRoute()));
+            this.copies.put(original, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * @return the same route over the copy's links, copied once and shared like the original
+     */
+    public Link[] route(Link[] original) {
+        if(original == null)
+            return null;
+        Link[] copy = (Link[]) this.copies.get(original);
+        if(copy == null) {
+            copy = new Link[original.length];
+            for(int i = 0; i < original.length; i++)
+                copy[i] = link(original[i]);
+            this.copies.put(original, copy);
+        }
+        return copy;
+    }
+
+    public Event event(Event original) {
+        if(original == null)
+            return null;
+        Event copy = (Event) this.copies.get(original);
+        if(copy == null) {
+            copy = new Event(null, 0).reset(packet(original.getPacket()), original.getSequenceNo(), original.getLength(),
+                    original.getType(), original.getTime(), node(original.getDestination()), link(original.getLink())).setHop(original.getHop());
+            copy.stamp(original.getOrigin(), original.getSequence());
+            this.copies.put(original, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * @return the copy's handle for a timer, null if the timer isn't pending anymore
+     */
+    public TimerWheel.Timer timer(TimerWheel.Timer original) {
+        return original == null ? null : (TimerWheel.Timer) this.copies.get(original);
+    }
+}
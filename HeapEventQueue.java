@@ -0,0 +1,38 @@
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Binary heap event queue, O(log n) per operation. This is what the scheduler always used.
+ */
+public class HeapEventQueue implements EventQueue {
+
+    private PriorityQueue<Event> heap;
+
+    HeapEventQueue() {
+        this.heap = new PriorityQueue<>();
+    }
+
+    public void add(Event e) {
+        this.heap.add(e);
+    }
+
+    public Event poll() {
+        return this.heap.poll();
+    }
+
+    public Event peek() {
+        return this.heap.peek();
+    }
+
+    public int size() {
+        return this.heap.size();
+    }
+
+    public boolean isEmpty() {
+        return this.heap.isEmpty();
+    }
+
+    public void forEach(Consumer<Event> action) {
+        this.heap.forEach(action);
+    }
+}
@@ -0,0 +1,121 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The 16 bit one's complement checksum of TCP (RFC 1071), shared by sender and receiver.
+ * Sums are taken over big endian 16 bit words, a trailing odd byte counts as the high byte of a
+ * word. Since 2^16 is 1 modulo 2^16 - 1, words can be added up in any grouping and folded at the
+ * end, so the data is read 8 bytes at a time and summed as two 32 bit halves into a long.
+ * Partial sums of separate parts (header fields, payload) just add up as long as every part
+ * starts at an even offset.
+ *
+ * update follows RFC 1624 (eqn. 3), a checksum stays right when one word changes without
+ * summing everything again.
+ */
+public class InternetChecksum {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private InternetChecksum() {
+    }
+
+    /**
+     * @return the folded sum of length bytes of data from offset
+     */
+    public static int sum(byte[] data, int offset, int length) {
+        long sum = 0;
+        int i = offset;
+        int end = offset + length;
+
+        // every add is under 2^33, so the long can't overflow for any array
+        for(; i + 8 <= end; i += 8) {
+            long words = (long) LONGS.get(data, i);
+            sum += (words >>> 32) + (words & 0xFFFFFFFFL);
+        }
+        for(; i + 2 <= end; i += 2)
+            sum += ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+        if(i < end)
+            sum += (data[i] & 0xFF) << 8;
+        return fold(sum);
+    }
+
+    /**
+     * @return the folded sum of length bytes of data from offset, data is left as it is
+     */
+    public static int sum(ByteBuffer data, int offset, int length) {
+        long sum = 0;
+        int i = offset;
+        int end = offset + length;
+        boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
+
+        for(; i + 8 <= end; i += 8) {
+            long words = data.getLong(i);
+            if(!bigEndian)
+                words = Long.reverseBytes(words);
+            sum += (words >>> 32) + (words & 0xFFFFFFFFL);
+        }
+        for(; i + 2 <= end; i += 2)
+            sum += ((data.get(i) & 0xFF) << 8) | (data.get(i + 1) & 0xFF);
+        if(i < end)
+            sum += (data.get(i) & 0xFF) << 8;
+        return fold(sum);
+    }
+
+    /**
+     * @return the sum of the two words of value, not folded
+     */
+    public static int sumInt(int value) {
+        return (value >>> 16) + (value & 0xFFFF);
+    }
+
+    /**
+     * @return the sum of the four words of value, not folded
+     */
+    public static int sumLong(long value) {
+        return sumInt((int) (value >>> 32)) + sumInt((int) value);
+    }
+
+    /**
+     * adds the carries back in until the sum fits in 16 bits
+     */
+    public static int fold(long sum) {
+        while((sum >>> 16) != 0)
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        return (int) sum;
+    }
+
+    /**
+     * @param sum sum of everything covered, with the checksum field as 0
+     * @return the checksum to put in the checksum field
+     */
+    public static int checksum(long sum) {
+        return ~fold(sum) & 0xFFFF;
+    }
+
+    /**
+     * RFC 1624: HC' = ~(~HC + ~m + m')
+     * @return checksum after one 16 bit word changed from oldWord to newWord
+     */
+    public static int update(int checksum, int oldWord, int newWord) {
+        int sum = (~checksum & 0xFFFF) + (~oldWord & 0xFFFF) + (newWord & 0xFFFF);
+        return ~fold(sum) & 0xFFFF;
+    }
+
+    /**
+     * @return checksum after a 32 bit field changed, word by word
+     */
+    public static int updateInt(int checksum, int oldValue, int newValue) {
+        checksum = update(checksum, oldValue >>> 16, newValue >>> 16);
+        return update(checksum, oldValue & 0xFFFF, newValue & 0xFFFF);
+    }
+
+    /**
+     * @return checksum after a 64 bit field changed, word by word
+     */
+    public static int updateLong(int checksum, long oldValue, long newValue) {
+        checksum = updateInt(checksum, (int) (oldValue >>> 32), (int) (newValue >>> 32));
+        return updateInt(checksum, (int) oldValue, (int) newValue);
+    }
+}
@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/**
+ * Ladder queue (Tang, Goh and Thng, 2005), O(1) amortized enqueue and dequeue.
+ *  - top: unsorted list of far-future events
+ *  - rungs: buckets over shrinking time ranges, a crowded bucket spawns a finer rung below it
+ *  - bottom: a short sorted list of the events about to come out, earliest at the end
+ * Bucket widths come from the spread of the events that are moved down, so the ladder
+ * adapts to the time distribution without any tuning.
+ * Bucket bounds are whole ns, so every event at one time falls in the same bucket and the
+ * same tier, and events at equal times come out by their tie-break like in the other queues.
+ */
+public class LadderEventQueue implements EventQueue {
+
+    private static final int THRESHOLD = 50;    // bucket size that is sorted directly instead of split
+    private static final int MAX_RUNGS = 8;
+
+    private static final Comparator<Event> LATEST_FIRST = Comparator.reverseOrder();
+
+    private ArrayList<Event> top;
+    private long topMin;
+    private long topMax;
+    private long topStart;          // events after this time go to top, the rungs and bottom hold the ones up to it
+
+    private Rung[] rungs;
+    private int rungCount;
+
+    private ArrayList<Event> bottom;
+    private int size;
+
+    private static class Rung {
+        ArrayList<Event>[] buckets;
+        long start;
+        long width;                 // at least 1 ns
+        int current;                // next bucket to move down
+
+        Rung(int bucketCount, long start, long width) {
+            this.buckets = newBuckets(bucketCount);
+            this.start = start;
+            this.width = width;
+            this.current = 0;
+        }
+
+        // arrays of a generic type can only be made unbounded and cast
+        @SuppressWarnings("unchecked")
+        private static ArrayList<Event>[] newBuckets(int count) {
+            return (ArrayList<Event>[]) new ArrayList<?>[count];
+        }
+
+        long currentStart() {
+            return offset(this.start, this.current, this.width);
+        }
+
+        void add(Event e) {
+            long offset = (e.getTime() - this.start) / this.width;
+            int i = (int) Math.min(offset, this.buckets.length);
+            // anything past the end belongs before the rung above, and the bucket gets sorted
+            // before it is used, so clamping to the ends keeps the order
+            if(i < this.current)
+                i = this.current;
+            if(i >= this.buckets.length)
+                i = this.buckets.length - 1;
+            if(this.buckets[i] == null)
+                this.buckets[i] = new ArrayList<>();
+            this.buckets[i].add(e);
+        }
+    }
+
+    LadderEventQueue() {
+        this.top = new ArrayList<>();
+        this.topMin = Long.MAX_VALUE;
+        this.topMax = Long.MIN_VALUE;
+        this.topStart = Long.MIN_VALUE;
+        this.rungs = new Rung[MAX_RUNGS];
+        this.rungCount = 0;
+        this.bottom = new ArrayList<>();
+        this.size = 0;
+    }
+
+    public void add(Event e) {
+        this.size++;
+        long time = e.getTime();
+
+        if(time > this.topStart) {
+            this.top.add(e);
+            this.topMin = Math.min(this.topMin, time);
+            this.topMax = Math.max(this.topMax, time);
+            return;
+        }
+
+        for(int r = 0; r < this.rungCount; r++) {
+            // a used up rung is only waiting to be removed, its range belongs to the one below
+            if(this.rungs[r].current < this.rungs[r].buckets.length && time >= this.rungs[r].currentStart()) {
+                this.rungs[r].add(e);
+                return;
+            }
+        }
+
+        insertBottom(e);
+        if(this.bottom.size() > THRESHOLD && this.rungCount < MAX_RUNGS)
+            bottomToRung();
+    }
+
+    private void insertBottom(Event e) {
+        int low = 0;
+        int high = this.bottom.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(this.bottom.get(mid).compareTo(e) > 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        this.bottom.add(low, e);
+    }
+
+    /**
+     * bottom got too long from events landing in front of the ladder, spread it into a new rung
+     */
+    private void bottomToRung() {
+        long min = this.bottom.get(this.bottom.size() - 1).getTime();
+        long max = this.bottom.get(0).getTime();
+        if(max <= min)
+            return;
+
+        int bucketCount = this.bottom.size();
+        Rung rung = new Rung(bucketCount, min, (max - min) / bucketCount + 1);
+        for(Event e: this.bottom)
+            rung.add(e);
+        this.bottom.clear();
+        this.rungs[this.rungCount++] = rung;
+    }
+
+    /**
+     * moves events down the ladder until bottom has something in it
+     * @return false if the queue is empty
+     */
+    private boolean fillBottom() {
+        while(this.bottom.isEmpty()) {
+            if(this.rungCount == 0) {
+                if(this.top.isEmpty())
+                    return false;
+                topToRung();
+                continue;
+            }
+
+            Rung rung = this.rungs[this.rungCount - 1];
+            while(rung.current < rung.buckets.length
+                    && (rung.buckets[rung.current] == null || rung.buckets[rung.current].isEmpty()))
+                rung.current++;
+            if(rung.current == rung.buckets.length) {
+                this.rungs[--this.rungCount] = null;
+                continue;
+            }
+
+            ArrayList<Event> bucket = rung.buckets[rung.current];
+            long bucketStart = rung.currentStart();
+            rung.buckets[rung.current] = null;
+            rung.current++;
+
+            if(bucket.size() > THRESHOLD && this.rungCount < MAX_RUNGS && !sameTime(bucket)) {
+                // too crowded to sort, split it over a finer rung
+                Rung child = new Rung(bucket.size(), bucketStart, (rung.width - 1) / bucket.size() + 1);
+                for(Event e: bucket)
+                    child.add(e);
+                this.rungs[this.rungCount++] = child;
+            }
+            else {
+                bucket.sort(LATEST_FIRST);
+                this.bottom.addAll(bucket);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the ladder is used up, so the top list becomes the first rung
+     */
+    private void topToRung() {
+        if(this.top.size() <= THRESHOLD || this.topMax <= this.topMin) {
+            this.top.sort(LATEST_FIRST);
+            this.bottom.addAll(this.top);
+            this.topStart = this.topMax;
+        }
+        else {
+            long width = (this.topMax - this.topMin) / this.top.size() + 1;
+            Rung rung = new Rung(this.top.size(), this.topMin, width);
+            for(Event e: this.top)
+                rung.add(e);
+            this.rungs[this.rungCount++] = rung;
+            long end = offset(rung.start, rung.buckets.length, width);
+            this.topStart = end == Long.MAX_VALUE ? end : end - 1;
+        }
+        this.top = new ArrayList<>();
+        this.topMin = Long.MAX_VALUE;
+        this.topMax = Long.MIN_VALUE;
+    }
+
+    // start + count * width, Long.MAX_VALUE if that is past the end of the clock (events at SimTime.NEVER)
+    private static long offset(long start, long count, long width) {
+        long span = count * width;
+        if(Math.multiplyHigh(count, width) != 0 || span < 0 || span > Long.MAX_VALUE - start)
+            return Long.MAX_VALUE;
+        return start + span;
+    }
+
+    private static boolean sameTime(ArrayList<Event> bucket) {
+        long first = bucket.get(0).getTime();
+        for(Event e: bucket) {
+            if(e.getTime() != first)
+                return false;
+        }
+        return true;
+    }
+
+    public Event poll() {
+        if(!fillBottom())
+            return null;
+        this.size--;
+        return this.bottom.remove(this.bottom.size() - 1);
+    }
+
+    public Event peek() {
+        if(!fillBottom())
+            return null;
+        return this.bottom.get(this.bottom.size() - 1);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void forEach(Consumer<Event> action) {
+        this.top.forEach(action);
+        // buckets already moved down are cleared
+        for(int r = 0; r < this.rungCount; r++) {
+            for(ArrayList<Event> bucket: this.rungs[r].buckets) {
+                if(bucket != null)
+                    bucket.forEach(action);
+            }
+        }
+        this.bottom.forEach(action);
+    }
+}
@@ -1,31 +1,68 @@
-public class Link {
+import java.util.ArrayDeque;
+
+public class Link implements Checkpointable {
     private int queueSize;
     private int bandwidth; // in bits
-    private int latency; // in ms
+    private long latency; // in ns
     private int bufferSize; // in KB
-    private double nextAvailableTime;
+    private long nextAvailableTime;     // in ns
 
-    private int id;     // for debugging
-    private static int idPool = 0;
+    private int id;     // place in the network's topology
 
     private Scheduler scheduler;
+    private Scheduler arrivalScheduler;     // scheduler of the partition owning toNode, same as scheduler unless the link is cut
     private Node fromNode;
     private Node toNode;
 
-    private double fullBufferTime;
+    private long fullBufferTime;        // in ns
+
+    // packets on the wire in arrival order, only the head is in the scheduler.
+    // departures never go back in time so arrivals on one link are already sorted
+    private ArrayDeque<Event> inFlight;
 
-    Link(Node n1, Node n2, int queueSize, int bandwidth, int latency, Scheduler scheduler) {
+    /**
+     * the scheduler is set by the run the link's network is used in, see SimpleNetwork.setScheduler
+     * @param latency in ns
+     * @param id place in the network's topology
+     */
+    Link(Node n1, Node n2, int queueSize, int bandwidth, long latency, int id) {
         this.queueSize = queueSize;
         this.bandwidth = bandwidth;     // in Mbps
         this.latency = latency;
         this.bufferSize = queueSize;
-        this.nextAvailableTime = 0.0;
+        this.nextAvailableTime = 0;
         this.fromNode = n1;
         this.toNode = n2;
-        this.scheduler = scheduler;
-        this.fullBufferTime = (this.bufferSize * 8.0) / (this.bandwidth * 1000000.0) * 1000.0;
-        this.id = idPool;
-        idPool++; 
+        this.fullBufferTime = transmitTime(this.bufferSize);
+        this.id = id;
+        this.inFlight = new ArrayDeque<>();
+    }
+
+    // copy of the link's parameters between n1 and n2 of another network, nothing in flight
+    Link(Link other, Node n1, Node n2) {
+        this.queueSize = other.queueSize;
+        this.bandwidth = other.bandwidth;
+        this.latency = other.latency;
+        this.bufferSize = other.bufferSize;
+        this.nextAvailableTime = 0;
+        this.fromNode = n1;
+        this.toNode = n2;
+        this.scheduler = null;
+        this.arrivalScheduler = null;
+        this.fullBufferTime = other.fullBufferTime;
+        this.id = other.id;
+        this.inFlight = new ArrayDeque<>();
+    }
+
+    /**
+     * takes over the departure clock and the packets on the wire of the link this one was copied from,
+     * the arrival events are the ones the copied scheduler holds
+     */
+    public void copyState(Link other, ForkContext context) {
+        this.nextAvailableTime = other.nextAvailableTime;
+        this.inFlight.clear();
+        for(Event e: other.inFlight)
+            this.inFlight.add(context.event(e));
     }
 
     public void setConnections(Node n1, Node n2) {
@@ -33,18 +70,65 @@ public class Link {
         this.toNode = n2;
     }
 
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        this.arrivalScheduler = scheduler;
+    }
+
+    /**
+     * for a link cut between two partitions of the parallel engine
+     * @param scheduler scheduler of the sending side
+     * @param arrivalScheduler scheduler of the receiving side
+     */
+    public void setSchedulers(Scheduler scheduler, Scheduler arrivalScheduler) {
+        this.scheduler = scheduler;
+        this.arrivalScheduler = arrivalScheduler;
+    }
+
+    public boolean isCut() {
+        return this.scheduler != this.arrivalScheduler;
+    }
+
+    // the drop threshold depends on both the buffer and the bandwidth, keep it in step
     public void setQueueSize(int size) {
         this.queueSize = size;
+        this.bufferSize = size;
+        this.fullBufferTime = transmitTime(this.bufferSize);
     }
 
     public void setBandwidth(int bandwidth) {
         this.bandwidth = bandwidth;
+        this.fullBufferTime = transmitTime(this.bufferSize);
     }
 
+    /**
+     * @param latency in ms
+     */
     public void setLatency(int latency) {
+        this.latency = latency * SimTime.NANOS_PER_MS;
+    }
+
+    /**
+     * @param latency in ns
+     */
+    public void setLatencyNanos(long latency) {
         this.latency = latency;
     }
 
+    // time to put bytes on the wire in ns, bytes * 8 / (Mbps * 10^6) s, and never without bandwidth
+    private long transmitTime(long bytes) {
+        if(this.bandwidth <= 0)
+            return SimTime.NEVER;
+        return bytes * 8000L / this.bandwidth;
+    }
+
+    /**
+     * @return place in the network's topology
+     */
+    public int getId() {
+        return this.id;
+    }
+
     public Node getStartNode() {
         return this.fromNode;
     }
@@ -61,10 +145,29 @@ public class Link {
         return this.bandwidth;
     }
 
+    /**
+     * @return latency in whole ms
+     */
     public int getLatency() {
+        return (int) (this.latency / SimTime.NANOS_PER_MS);
+    }
+
+    /**
+     * @return latency in ns
+     */
+    public long getLatencyNanos() {
         return this.latency;
     }
 
+    // only the departure clock changes when sending, the in-flight queue is unused by optimistic partitions
+    public Object saveState() {
+        return this.nextAvailableTime;
+    }
+
+    public void restoreState(Object state) {
+        this.nextAvailableTime = (Long) state;
+    }
+
     public String toString() {
         return "link " + this.id + " : from " + this.fromNode.getName() + ", to " + this.toNode.getName();
     }
@@ -72,20 +175,19 @@ public class Link {
     /**
      * 
      * @param packet
-     * @param source
+     * @param hop index in the packet's route of the link the end node sends on, unused without a route
      * @return false if dropping a packet, true if no error 
      */
-    public void send(SimplePacket packet) {
+    public void send(SimplePacket packet, int hop) {
 
-        // calculate delay caused by bandwidth, in ms
-        // ms = (Bytes * 8) / (Mb / s * 1,000,000) * 1,000
-        double currentTime = this.scheduler.getCurrentTime();
-        double transmitTime = (packet.getSize() * 8.0) / (this.bandwidth * 1000000.0) * 1000.0; // s to ms
+        // calculate delay caused by bandwidth, in ns
+        long currentTime = this.scheduler.getCurrentTime();
+        long transmitTime = transmitTime(packet.getSize());
 
-        double currentBufferTime = this.fullBufferTime + currentTime;
+        long currentBufferTime = SimTime.add(currentTime, this.fullBufferTime);
 
-        double departTime = Math.max(this.nextAvailableTime, currentTime);
-        double checkAvailableTime = departTime + transmitTime;
+        long departTime = Math.max(this.nextAvailableTime, currentTime);
+        long checkAvailableTime = SimTime.add(departTime, transmitTime);
 
         // check whether the buffer is full by seeing if the estimated end time to go through the link
         // is further away from the end time of processing everything in the buffer
@@ -93,10 +195,55 @@ public class Link {
             return;    // drop packet
 
         this.nextAvailableTime = checkAvailableTime;
-        double arriveTime = this.nextAvailableTime + this.latency;
+        long arriveTime = SimTime.add(this.nextAvailableTime, this.latency);
+
+        // the arrival event holds its own reference to the packet
+        packet.retain();
+        Event arrival = this.scheduler.acquireEvent();
+
+        // the other side belongs to another partition, its thread owns the event from now on
+        if(isCut()) {
+            this.scheduler.sendTo(this.arrivalScheduler, stamp(arrival.reset(packet, 0, 0, Event.EventType.ARRIVE, arriveTime, this.toNode, null).setHop(hop)));
+            return;
+        }
+
+        // latency lowered while packets are still on the wire, this one overtakes the queue
+        // so it can't wait behind the head, give it to the scheduler directly.
+        // an optimistic scheduler has to see every event to roll it back, so it skips the queue too,
+        // and so does one packing arrivals into rows, the stamp keeps them in the same order
+        if(this.scheduler.isOptimistic() || this.scheduler.packsArrivals()
+                || (!this.inFlight.isEmpty() && arriveTime < this.inFlight.peekLast().getTime())) {
+            this.scheduler.schedule(stamp(arrival.reset(packet, 0, 0, Event.EventType.ARRIVE, arriveTime, this.toNode, null).setHop(hop)));
+            return;
+        }
+
+        this.inFlight.add(stamp(arrival.reset(packet, 0, 0, Event.EventType.ARRIVE, arriveTime, this.toNode, this).setHop(hop)));
+        if(this.inFlight.size() == 1)
+            this.scheduler.schedule(arrival);
+    }
 
-        this.scheduler.schedule(new Event(packet, Event.EventType.ARRIVE, arriveTime, this.toNode));
+    /**
+     * stamps an arrival as the sending node's, when it is sent, so it gets the same place among
+     * events at its time whether the link is cut or not, and however long it waits in inFlight
+     */
+    private Event stamp(Event arrival) {
+        return this.scheduler.stamp(arrival, this.fromNode.getIndex());
+    }
+
+    /**
+     * called by the scheduler when the head arrival comes off the queue, puts the next one in
+     * @param arrival the event that was just run
+     */
+    public void delivered(Event arrival) {
+        if(this.inFlight.peekFirst() != arrival)
+            return;
+        this.inFlight.pollFirst();
+        if(!this.inFlight.isEmpty())
+            this.scheduler.schedule(this.inFlight.peekFirst());
+    }
 
+    public int getInFlightCount() {
+        return this.inFlight.size();
     }
 
     public boolean receive(SimplePacket packet) {
@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+
+/**
+ * One partition of the parallel engine: a group of nodes, the links going out of them,
+ * and the scheduler holding their events. Only the partition's own thread touches it,
+ * other partitions reach it through the scheduler's inbox.
+ */
+public class LogicalProcess {
+
+    private int id;
+    private Scheduler scheduler;
+    private ArrayList<Node> nodes;
+    private long eventCount = 0;
+
+    LogicalProcess(int id, Scheduler scheduler) {
+        this.id = id;
+        this.scheduler = scheduler;
+        this.nodes = new ArrayList<>();
+    }
+
+    public int getID() {
+        return this.id;
+    }
+
+    public Scheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    public void addNode(Node node) {
+        this.nodes.add(node);
+        node.setScheduler(this.scheduler);
+    }
+
+    public ArrayList<Node> getNodes() {
+        return this.nodes;
+    }
+
+    public long getEventCount() {
+        return this.eventCount;
+    }
+
+    /**
+     * runs every event before end, or up to and including end when inclusive
+     */
+    public void runUntil(long end, boolean inclusive, TCPsender sender, TCPrecver receiver) {
+        while(true) {
+            long next = this.scheduler.nextEventTime();
+            if(next == SimTime.NEVER || next > end || (next == end && !inclusive))
+                break;
+
+            Event currEvent = this.scheduler.runSchedule();
+            Simulation.handleEvent(currEvent, sender, receiver);
+            this.scheduler.release(currEvent);
+            this.eventCount++;
+        }
+    }
+
+    public String toString() {
+        return "partition " + this.id + " : " + this.nodes.size() + " nodes";
+    }
+}
@@ -1,17 +1,19 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class NetworkSimulator {
 
-    private static SimpleNetwork network;
-
     private static String[] COMMANDS = {"run", "showconfig", "setup", "exit", "help", "setuptcp"};
 
     private static final int DEFAULT_FILE_SIZE = 200;           // in KB
-    private static final int DEFAULT_MTU = 1500;                // in bytes
-    private static final int DEFAULT_RECV_BUFFER_SIZE = 20;     // number of segments
+    static final int DEFAULT_MTU = 1500;                // in bytes
+    static final int DEFAULT_RECV_BUFFER_SIZE = 20;     // number of segments
     private static final int DEFAULT_NUMBER_OF_TESTS = 3;
 
     private static final String INITIAL_FILE_NAME = "test_original.txt";
@@ -19,14 +21,13 @@ public class NetworkSimulator {
     private static final String BANDWIDTH_FILE_NAME = "test_bandwidth_";
     private static final String BUFFERSIZE_FILE_NAME = "test_buffersize_";
     private static final String FILE_NAME_EXTENSION = ".txt";
+    private static final String DEFAULT_SWEEP_RESULT_FILE = "sweep_results.csv";
 
-    private static final int LATENCY_TEST_NO = 0;
-    private static final int BANDWIDTH_TEST_NO = 1;
-    private static final int BUFFERSIZE_TEST_NO = 2;
-
-    private static Scheduler scheduler;
+    static final int LATENCY_TEST_NO = 0;
+    static final int BANDWIDTH_TEST_NO = 1;
+    static final int BUFFERSIZE_TEST_NO = 2;
 
-    private record TestConfig(
+    record TestConfig(
         short sourceID, 
         short destID, 
         Node sourceNode, 
@@ -39,7 +40,19 @@ public class NetworkSimulator {
         int testCount, 
         int mtu, 
         int rcvBufSize, 
-        boolean verbose
+        boolean verbose,
+        Scheduler.QueueType queueType,
+        int workers,
+        boolean optimistic,
+        int threads,
+        String sweepFile,
+        String resultFile,
+        double warmup,
+        double precision,
+        TCPmessage.Encoding encoding,
+        double corruption,
+        TCPmessage.Payload payload,
+        boolean sourceRouting
     ) {}
 
     public static void main(String args[]) {
@@ -47,6 +60,7 @@ public class NetworkSimulator {
         int fileSize = DEFAULT_FILE_SIZE;
         int mtu = DEFAULT_MTU;
         int rcvBufSize = DEFAULT_RECV_BUFFER_SIZE;
+        SimpleNetwork network = null;
 
         Scanner in = new Scanner(System.in);
         
@@ -72,6 +86,18 @@ public class NetworkSimulator {
                     int numberOfTests = -1;
                     Link[] links = null;
                     boolean verbose = false;
+                    Scheduler.QueueType queueType = Scheduler.QueueType.HEAP;
+                    int workers = 1;
+                    boolean optimistic = false;
+                    int threads = 1;
+                    String sweepFile = null;
+                    String resultFile = DEFAULT_SWEEP_RESULT_FILE;
+                    double warmup = 0.0;
+                    double precision = 0.0;
+                    TCPmessage.Encoding encoding = TCPmessage.Encoding.BYTES;
+                    double corruption = 0.0;
+                    TCPmessage.Payload payload = TCPmessage.Payload.REAL;
+                    boolean sourceRouting = false;
 
                     for(int i = 1; i < inputSplit.length; i+=2) {
                         if(i+1 >= inputSplit.length) {
@@ -135,7 +161,7 @@ public class NetworkSimulator {
                         }
                         if(inputSplit[i].equals("-l")) {
                             String[] nodes = inputSplit[i+1].split(":");
-                            links = findLink(nodes[0], nodes[1]);
+                            links = findLink(network, nodes[0], nodes[1]);
                             if(links == null) {
                                 System.out.println("Invalid run command, type \"help\" for list of commands.");
                                 break;
@@ -144,9 +170,122 @@ public class NetworkSimulator {
                         if(inputSplit[i].equals("-v")) {
                             verbose = true;
                         }
+                        if(inputSplit[i].equals("-q")) {
+                            if(inputSplit[i+1].equals("heap"))
+                                queueType = Scheduler.QueueType.HEAP;
+                            else if(inputSplit[i+1].equals("calendar"))
+                                queueType = Scheduler.QueueType.CALENDAR;
+                            else if(inputSplit[i+1].equals("ladder"))
+                                queueType = Scheduler.QueueType.LADDER;
+                            else if(inputSplit[i+1].equals("columns"))
+                                queueType = Scheduler.QueueType.COLUMNS;
+                            else {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-w")) {
+                            try{
+                                workers = Integer.parseInt(inputSplit[i+1]);
+                            } catch (NumberFormatException e) {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                            // a run needs at least one partition
+                            if(workers < 1) {
+                                workers = 1;
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-j")) {
+                            try{
+                                threads = Integer.parseInt(inputSplit[i+1]);
+                            } catch (NumberFormatException e) {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                            // the pool running the tests needs a thread
+                            if(threads < 1) {
+                                threads = 1;
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-x")) {
+                            sweepFile = inputSplit[i+1];
+                        }
+                        if(inputSplit[i].equals("-o")) {
+                            resultFile = inputSplit[i+1];
+                        }
+                        if(inputSplit[i].equals("-u")) {
+                            try{
+                                warmup = Double.parseDouble(inputSplit[i+1]);
+                            } catch (NumberFormatException e) {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-r")) {
+                            try{
+                                precision = Double.parseDouble(inputSplit[i+1]);
+                            } catch (NumberFormatException e) {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-b")) {
+                            if(inputSplit[i+1].equals("bytes"))
+                                encoding = TCPmessage.Encoding.BYTES;
+                            else if(inputSplit[i+1].equals("object"))
+                                encoding = TCPmessage.Encoding.OBJECT;
+                            else {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-k")) {
+                            try{
+                                corruption = Double.parseDouble(inputSplit[i+1]);
+                            } catch (NumberFormatException e) {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-a")) {
+                            if(inputSplit[i+1].equals("real"))
+                                payload = TCPmessage.Payload.REAL;
+                            else if(inputSplit[i+1].equals("virtual"))
+                                payload = TCPmessage.Payload.VIRTUAL;
+                            else {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-g")) {
+                            if(inputSplit[i+1].equals("hop"))
+                                sourceRouting = false;
+                            else if(inputSplit[i+1].equals("source"))
+                                sourceRouting = true;
+                            else {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
+                        if(inputSplit[i].equals("-e")) {
+                            if(inputSplit[i+1].equals("conservative"))
+                                optimistic = false;
+                            else if(inputSplit[i+1].equals("optimistic"))
+                                optimistic = true;
+                            else {
+                                System.out.println("Invalid run command, type \"help\" for list of commands.");
+                                break;
+                            }
+                        }
                     }
 
-                    if(startID == -1 || destID == -1 || testname == -1 || stepsize == -1) {
+                    // a sweep takes its parameters from the spec file
+                    if(startID == -1 || destID == -1 || (sweepFile == null && (testname == -1 || stepsize == -1))) {
                         System.out.println("Invalid run command, type \"help\" for list of commands.");
                         break;
                     }
@@ -154,13 +293,22 @@ public class NetworkSimulator {
                     if(numberOfTests == -1)
                         numberOfTests = DEFAULT_NUMBER_OF_TESTS;
 
-                    if(links == null) {
+                    if(links == null && sweepFile == null) {
                         System.out.println("Invalid run command, type \"help\" for list of commands.");
                         break;
                     }
 
-                    TestConfig testConfig = new TestConfig(startID, destID, network.getNodeFromID(startID), network.getNodeFromID(destID), links, fileSize, filename, testname, stepsize, numberOfTests, mtu, sws, verbose);
-                    run(testConfig);
+                    // warm-ups fork a sequential snapshot and the steady state monitor watches a single event loop
+                    if(warmup > 0 && workers > 1) {
+                        System.out.println("Warm-up is only for sequential runs, type \"help\" for list of commands.");
+                    }
+                    else if(precision > 0 && workers > 1) {
+                        System.out.println("Steady state detection is only for sequential runs, type \"help\" for list of commands.");
+                    }
+                    else {
+                        TestConfig testConfig = new TestConfig(startID, destID, network.getNodeFromID(startID), network.getNodeFromID(destID), links, fileSize, filename, testname, stepsize, numberOfTests, mtu, rcvBufSize, verbose, queueType, workers, optimistic, threads, sweepFile, resultFile, warmup, precision, encoding, corruption, payload, sourceRouting);
+                        run(network, testConfig);
+                    }
                 }
             }
 
@@ -173,7 +321,7 @@ public class NetworkSimulator {
             // setup
             else if(inputSplit[0].equals(COMMANDS[2])) {
                 if(inputSplit.length == 2) {
-                    network = new SimpleNetwork(inputSplit[1], scheduler);
+                    network = new SimpleNetwork(inputSplit[1]);
                 }
                 else {
                     System.out.println("invalid setup command");
@@ -194,6 +342,25 @@ public class NetworkSimulator {
                     System.out.println("            -f file size to be sent (in KB) (if none provided, default is 200KB)");
                     System.out.println("            -n name of file to be sent (if none provided, will create one)");
                     System.out.println("            -v verbose mode");
+                    System.out.println("            -q event queue, \"heap\", \"calendar\", \"ladder\", \"columns\" (default is heap)");
+                    System.out.println("            -w number of partitions to run in parallel (default is 1)");
+                    System.out.println("            -j number of tests to run at the same time (default is 1)");
+                    System.out.println("            -e parallel engine, \"conservative\", \"optimistic\" (time warp) (default is conservative)");
+                    System.out.println("            -x sweep spec file, runs every combination of the parameters in it instead of -t, -l, -p and -c");
+                    System.out.println("               one parameter per line: \"latency|bandwidth|buffersize r1:r2 values\" or \"mtu|window values\",");
+                    System.out.println("               values are \"from to step\" or a list like \"1,5,10\"");
+                    System.out.println("            -u warm-up time in ms, runs the unchanged network once up to then and forks every test from there");
+                    System.out.println("               (sequential runs only, a sweep can't change the mtu after it)");
+                    System.out.println("            -r stops each test at steady state, once the 95% intervals of throughput, rtt and cwnd are");
+                    System.out.println("               within this share of their means, example: 0.05 (sequential runs only)");
+                    System.out.println("            -b how segments are carried, \"bytes\" (serialized), \"object\" (passed as they are,");
+                    System.out.println("               checksums only with -k) (default is bytes)");
+                    System.out.println("            -k share of segments arriving at the receiver with a flipped bit, example: 0.01 (default is 0)");
+                    System.out.println("            -a what segments carry, \"real\" (the file's bytes), \"virtual\" (only lengths, no output file is");
+                    System.out.println("               written, delivery is checked against a digest instead) (default is real, virtual needs -b object)");
+                    System.out.println("            -g routing, \"hop\" (every node looks up the next hop), \"source\" (each end's path is resolved");
+                    System.out.println("               once when the test starts and packets carry it) (default is hop)");
+                    System.out.println("            -o file the sweep results are written to, one csv row per scenario (default is sweep_results.csv)");
                     System.out.println("  2. setup [filename]: sets up the network based on topology in file");
                     System.out.println("  3. settcp: sets some parameters for TCP");
                     System.out.println("            -m sets maximum transmission unit in bytes");
@@ -242,7 +409,7 @@ public class NetworkSimulator {
         in.close();
     }
 
-    private static void run(TestConfig testConfig) {
+    private static void run(SimpleNetwork network, TestConfig testConfig) {
         String newFile;
 
         if(testConfig.filename == null) {
@@ -253,12 +420,29 @@ public class NetworkSimulator {
             newFile = testConfig.filename;
         }
 
-        runTests(testConfig, newFile, testConfig.test);
+        if(testConfig.payload == TCPmessage.Payload.VIRTUAL && testConfig.encoding != TCPmessage.Encoding.OBJECT) {
+            System.out.println("Virtual payloads need the object encoding (-b object), type \"help\" for list of commands.");
+            return;
+        }
+
+        if(testConfig.sweepFile != null) {
+            SweepSpec spec = SweepSpec.load(testConfig.sweepFile, network);
+            if(spec == null)
+                return;
+            if(testConfig.warmup > 0 && spec.has(SweepSpec.Parameter.MTU)) {
+                System.out.println("Sweep spec can't change the mtu after a warm-up.");
+                return;
+            }
+            new Sweep(spec, testConfig, network, newFile).run(testConfig.resultFile);
+            return;
+        }
+
+        runTests(network, testConfig, newFile, testConfig.test);
 
     }
     
 
-    private static void runTests(TestConfig testConfig, String filename, int testNo) {
+    private static void runTests(SimpleNetwork network, TestConfig testConfig, String filename, int testNo) {
 
         // set up file name for specific tests
         String filePrefix = "";
@@ -274,90 +458,47 @@ public class NetworkSimulator {
                 break;
         }
 
-        for(int i = 1; i <= testConfig.testCount; i++) {
-            String outputFilename = filePrefix + i + FILE_NAME_EXTENSION;
-
-            scheduler = new Scheduler();
-            TCPsender sender = new TCPsender(testConfig.sourceID, testConfig.destID, testConfig.sourceNode, filename, testConfig.mtu, scheduler, testConfig.verbose);
-            TCPrecver receiver = new TCPrecver(testConfig.destID, testConfig.sourceID, testConfig.destNode, outputFilename, testConfig.mtu, testConfig.rcvBufSize, scheduler, testConfig.verbose); 
-
-            
-            /**
-             * flow:
-             * 1. sender init connection
-             * 2. go into while loop, get event from queue, get global time
-             * 3. do what the event is: 
-             *      arrive: check which end node, if not, send onto link
-             *              if so, do the end node logic
-             *              might need to restructure tcp sender and recver, tcp sender may need a counter to send packets individually and not in a loop
-             *              also when sender sends, add a timeout event onto queue
-             *      timeout: check if the ack was received, if not, add a new event onto queue
-             * 4. go back to 2.
-             * 
-             * So sender init connection by sending a packet ie calling node.send, 
-             * then node calls link.send which puts the arrival event on the queue. 
-             * then when queue is polled, the event is executed by calling node.send of the arrival node, 
-             * then link.send again until the arrival node is the end node. 
-             * Then i call tcp receiver's receive function to process the packet. 
-             */
-
-            receiver.listen();
-            sender.initConnection();    // only sends first handshake
-            
-
-            while(!scheduler.getQueue().isEmpty()) {
-                
-                Event currEvent = scheduler.run();
-
-                if(currEvent.getType() == Event.EventType.ARRIVE) {
-                    // depending on whether the packet arrives at the source or destination, TCP sender or receiver is called
-                    if(currEvent.getDestination().getID() == currEvent.getPacket().getDestinationID()) {
-                        receiver.receive(currEvent.getPacket());
-                    }
-                    else if(currEvent.getDestination().getID() == currEvent.getPacket().getSourceID()) {
-                        sender.receive(currEvent.getPacket());
-                        // if ack for threeway handshake is received, start sending packets, done in TCPsender
-                    }
-                    // otherwise, just send packet down to the next node
-                    else {
-                        currEvent.getDestination().send(currEvent.getPacket());
-                    }
-                }
+        // the tests share everything up to the warm-up time, so that part only runs once
+        Snapshot snapshot = null;
+        if(testConfig.warmup > 0) {
+            snapshot = Simulation.warmUp(testConfig, network, filename, testConfig.warmup);
+            if(snapshot == null)
+                return;
+        }
 
-                if(currEvent.getType() == Event.EventType.TIMEOUT_CHECK) {
-                    sender.checkTimeout(currEvent.getPacket(), currEvent.getSequenceNo(), currEvent.getLength());
-                    // get a data structure from sender that records if a packet received an ack
-                    // if received, just continue, if not, send packet again
-                }
-            }
+        // every test runs on its own copy of the network, so they can run side by side
+        Simulation[] simulations = new Simulation[testConfig.testCount];
+        for(int i = 1; i <= testConfig.testCount; i++) {
+            if(snapshot != null)
+                simulations[i - 1] = new Simulation(i, testConfig, snapshot, filePrefix + i + FILE_NAME_EXTENSION, null);
+            else
+                simulations[i - 1] = new Simulation(i, testConfig, network, filename, filePrefix + i + FILE_NAME_EXTENSION);
+        }
 
-            configureLinks(testConfig.links, testConfig.stepSize, testNo);
+        if(testConfig.threads <= 1) {
+            for(Simulation simulation: simulations)
+                System.out.print(simulation.run());
+            return;
+        }
 
+        ForkJoinPool pool = new ForkJoinPool(testConfig.threads);
+        ExecutorService outputExecutor = SegmentWriter.newSharedExecutor();
+        ArrayList<ForkJoinTask<String>> reports = new ArrayList<>();
+        for(Simulation simulation: simulations) {
+            simulation.setOutputExecutor(outputExecutor);
+            reports.add(pool.submit(simulation::run));
         }
-        
-    }
 
-    private static void configureLinks(Link[] links, int stepSize, int testNo) {
-        switch(testNo) {
-            case LATENCY_TEST_NO:
-                int initialLatency = links[0].getLatency();
-                links[0].setLatency(initialLatency + stepSize);
-                links[1].setLatency(initialLatency + stepSize);
-                break;
-            case BANDWIDTH_TEST_NO:
-                int initialBandwidth = links[0].getBandwidth();
-                links[0].setLatency(initialBandwidth + stepSize);
-                links[1].setLatency(initialBandwidth + stepSize);
-                break;
-            case BUFFERSIZE_TEST_NO:
-                int initialBuffer = links[0].getQueueSize();
-                links[0].setLatency(initialBuffer + stepSize);
-                links[1].setLatency(initialBuffer + stepSize);
-                break;
-            default:
-                return;
-            
+        // reports come out in test order, whichever finished first
+        for(int i = 0; i < reports.size(); i++) {
+            try {
+                System.out.print(reports.get(i).join());
+            } catch (RuntimeException e) {
+                System.out.println("Test " + (i + 1) + " failed: " + e);
+            }
         }
+        pool.shutdown();
+        outputExecutor.shutdown();
     }
 
     private static void createFile(int filesize) {
@@ -374,7 +515,7 @@ public class NetworkSimulator {
 
     }
 
-    private static Link[] findLink(String n1, String n2) {
+    private static Link[] findLink(SimpleNetwork network, String n1, String n2) {
         Node node1 = null;
         Node node2 = null;
         for(Node node: network.getHosts()) {
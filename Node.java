@@ -1,8 +1,5 @@
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 
 /**
  * Class for routers and hosts.
@@ -10,22 +7,25 @@ import java.util.concurrent.ArrayBlockingQueue;
 public class Node {
     private short ID;
     private String name;
-    private HashMap<Node, Link> routingTable;
-    private HashMap<Node, Link> links;          // for building routing table
+    private int index;                          // place in the network's topology
     private SimpleNetwork network;
-    private ArrayBlockingQueue<SimplePacket> received;
+    private int[] nextHops;                     // the topology's routing table, this node's row starts at rowStart
+    private int rowStart;
+    private int idRange;                        // row length, one entry per destination ID
     private long timeout;
     private Scheduler scheduler;
 
-    Node(String nodeName, short nodeID, SimpleNetwork network, Scheduler scheduler) {
+    // the scheduler is set by the run the node's network is used in, see SimpleNetwork.setScheduler
+    Node(String nodeName, short nodeID, SimpleNetwork network, int index) {
         this.ID = nodeID;
         this.name = nodeName;
-        this.routingTable = new HashMap<>();
-        this.links = new HashMap<>();
         this.network = network;
-        this.received = new ArrayBlockingQueue<>(1);
+        this.index = index;
+        RoutingTables routes = network.getTopology().getRoutes();
+        this.nextHops = routes.getTable();
+        this.idRange = routes.getColumns();
+        this.rowStart = index * this.idRange;
         this.timeout = 0;
-        this.scheduler = scheduler;
     }
 
     public short getID() {
@@ -35,101 +35,71 @@ public class Node {
         return this.name;
     }
 
-    public void setTimeout(long t) {
-        this.timeout = t;
-    }
-
-    public void addLink(Node node, Link link) {
-        links.put(node, link);
+    public int getIndex() {
+        return this.index;
     }
 
-    public void removeLink(Node node, Link link) {
-        links.remove(node, link);
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
     }
 
-    private HashMap<Node, Link> getLinks() {
-        return this.links;
+    public void setTimeout(long t) {
+        this.timeout = t;
     }
 
-    public HashMap<Node, Link> getRoutingTable() {
-        return this.routingTable;
+    /**
+     * @return the link towards the node with destID, null if there is no such node or no way to it
+     */
+    public Link nextHop(short destID) {
+        if(destID < 0 || destID >= this.idRange)
+            return null;
+        int link = this.nextHops[this.rowStart + destID];
+        return link == -1 ? null : this.network.getLink(link);
     }
 
     /**
-     * BFS for building routing table
+     * @return the links from this node to the node with destID, resolved once for source routing,
+     * null if there is no way there
      */
-    public void buildRoutingTable(Node[] nodeList) {
-        this.routingTable = new HashMap<>();
-
-        HashMap<Node, Integer> distances = new HashMap<>();
-        HashMap<Node, Node> parents = new HashMap<>();
-
-        for(int i = 0; i < nodeList.length; i++) {
-            distances.put(nodeList[i], Integer.MAX_VALUE);
-            if(nodeList[i].equals(this))
-                distances.put(nodeList[i], 0);
-            parents.put(nodeList[i], null);
-        }
-
-        Queue<Node> unvisited = new LinkedList<>();
-        unvisited.add(this);
-        Queue<Node> visited = new LinkedList<>();
-
-        // System.out.println("table for " + this.toString());
-        while(!unvisited.isEmpty()) {
-            // for(Node n: unvisited)
-            //     System.out.println("visited: " + n);
-            Node curr = unvisited.poll();
-            visited.add(curr);
-            for(Node node : curr.getLinks().keySet()) {
-                int dist = distances.get(curr);
-                if(distances.get(node) > dist) {
-                    distances.put(node, dist+1);
-                    parents.put(node, curr);
-                }
-                if(!visited.contains(node))
-                    unvisited.add(node);
-            }
+    public Link[] routeTo(short destID) {
+        ArrayList<Link> route = new ArrayList<>();
+        Node node = this;
+        while(node.getID() != destID) {
+            Link link = node.nextHop(destID);
+            if(link == null)
+                return null;
+            route.add(link);
+            node = link.getEndNode();
         }
+        return route.toArray(new Link[0]);
+    }
 
-        // for(Node node: nodeList) {
-        //     System.out.println("   " + node + ", dist: " + distances.get(node) + ", parent: " + parents.get(node));
-        // }
-
-        for(Node node: nodeList) {
-            
-            int dist = distances.get(node);
-            if(dist == 0 || dist == Integer.MAX_VALUE)
-                continue;
-            Node parent = node;
-            while(dist != 1) {
-                parent = parents.get(parent);
-                dist-=1;
-            }
-            this.routingTable.put(node, links.get(parent));
-        }
+    /**
+     * sends a packet starting out from this node
+     */
+    public void send(SimplePacket packet) {
+        send(packet, 0);
     }
 
     /**
      * nodes just send packet along by scheduling an event
      * @param packet
+     * @param hop with source routing, index of this node's link in the packet's route
      * @return
      */
-    public void send(SimplePacket packet) {
+    public void send(SimplePacket packet, int hop) {
         short destID = packet.getDestinationID();
 
-        Node node = this.network.getNodeFromID(destID);
-        if(node == null) {
-            System.out.println("node doesn't exist");
-            return;
-        }
-
-        Link linkToSend = this.routingTable.get(node);
+        Link[] route = packet.getRoute();
+        Link linkToSend = route != null && hop < route.length ? route[hop] : nextHop(destID);
         if(linkToSend == null) {
-            System.out.println("link doesn't exist");
+            if(this.network.getNodeFromID(destID) == null)
+                System.out.println("node doesn't exist");
+            else
+                System.out.println("link doesn't exist");
             return;
         }
-        linkToSend.send(packet);
+        linkToSend.send(packet, hop + 1);
     }
 
     public boolean receive(SimplePacket packet) {
@@ -160,8 +130,15 @@ public class Node {
 
     public void printTable() {
         System.out.println("=== Table for " + this.toString() + " ===");
-        for(HashMap.Entry<Node, Link> entry: routingTable.entrySet()) {
-            System.out.println("     " + entry.getKey() + " ---> " + entry.getValue());
+        for(Node node: this.network.getHosts()) {
+            Link link = this.network.nextLink(this, node);
+            if(link != null)
+                System.out.println("     " + node + " ---> " + link);
+        }
+        for(Node node: this.network.getRouters()) {
+            Link link = this.network.nextLink(this, node);
+            if(link != null)
+                System.out.println("     " + node + " ---> " + link);
         }
     }
 
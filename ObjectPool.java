@@ -0,0 +1,44 @@
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Free list of reusable objects, so the per packet objects stop going through the garbage collector.
+ * Whoever acquires an object owns it until it releases it, and must not use it after that.
+ * Objects come back as they were released, the owner resets the fields it needs.
+ */
+public class ObjectPool<T> {
+
+    private ArrayDeque<T> free;
+    private Supplier<T> factory;
+
+    // pool stats
+    private long created = 0;
+    private long reused = 0;
+
+    ObjectPool(Supplier<T> factory) {
+        this.free = new ArrayDeque<>();
+        this.factory = factory;
+    }
+
+    public T acquire() {
+        T object = this.free.pollLast();
+        if(object == null) {
+            this.created++;
+            return this.factory.get();
+        }
+        this.reused++;
+        return object;
+    }
+
+    public void release(T object) {
+        this.free.addLast(object);
+    }
+
+    public long getCreatedCount() {
+        return this.created;
+    }
+
+    public long getReusedCount() {
+        return this.reused;
+    }
+}
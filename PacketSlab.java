@@ -0,0 +1,44 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size packet buffers carved out of slabs of direct memory, so serialized segments stay out
+ * of the Java heap and the garbage collector never sees them.
+ * A slot is given to a packet once and stays with it while the packet goes around the scheduler's
+ * pool, so the packet's reference count is the slot's too. Slabs are never given back, like the pool.
+ */
+public class PacketSlab {
+
+    private static final int SLOTS_PER_SLAB = 64;
+
+    private final int slotSize;
+    private ByteBuffer slab;
+    private int nextSlot = SLOTS_PER_SLAB;     // first free slot of the current slab
+    private int slabCount = 0;
+
+    /**
+     * @param slotSize bytes per packet, rounded up to a multiple of 8 so slots start aligned for checksums
+     */
+    PacketSlab(int slotSize) {
+        this.slotSize = (slotSize + 7) & ~7;
+    }
+
+    /**
+     * @return a slot of its own from index 0, for absolute gets and puts
+     */
+    public ByteBuffer slot() {
+        if(this.nextSlot == SLOTS_PER_SLAB) {
+            this.slab = ByteBuffer.allocateDirect(this.slotSize * SLOTS_PER_SLAB);
+            this.nextSlot = 0;
+            this.slabCount++;
+        }
+        return this.slab.slice(this.slotSize * this.nextSlot++, this.slotSize);
+    }
+
+    public int getSlotSize() {
+        return this.slotSize;
+    }
+
+    public int getSlabCount() {
+        return this.slabCount;
+    }
+}
@@ -2,9 +2,9 @@ public class PacketWrapper {
     SimplePacket packet;
     TCPmessage message;
     int ackCount = 0; // counts if matches the acknowledgment in header, if >= 3 retransmit
-    double timeSent;
+    long timeSent;      // in ns
 
-    PacketWrapper(SimplePacket packet, TCPmessage message, double timeSent) {
+    PacketWrapper(SimplePacket packet, TCPmessage message, long timeSent) {
         this.packet = packet;
         this.message = message;
         this.timeSent = timeSent;
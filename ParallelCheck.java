@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check of the parallel engines: runs flows between the hosts of each topology sequentially, then
+ * split into partitions by the conservative and the Time Warp engine, and compares what the runs
+ * come to. Events are ordered by the node they come from, not the partition running them, so every
+ * partitioning has to give the sequential run's stats and output exactly. A sequential run that
+ * delivers nothing counts as wrong too, there would be nothing to compare.
+ * The sample topologies leave link parameters at 0, so every link gets the same ones, with the
+ * core links slower to make queues build up, and every run stops at the same time in case its
+ * flow doesn't finish.
+ * Prints the runs that differ, and exits with 1 if there were any.
+ * usage: java ParallelCheck [topology files] (default topo/dumbbell.topo topo/triangle.topo)
+ */
+public class ParallelCheck {
+
+    private static final int[] WORKERS = {2, 3, 4};
+    private static final int FILE_SIZE = 200 * 1024;
+    private static final double END_TIME = 60000;     // in ms, where a flow that doesn't finish is cut off
+
+    public static void main(String[] args) throws IOException {
+        String[] topologies = args.length > 0 ? args : new String[] {"topo/dumbbell.topo", "topo/triangle.topo"};
+
+        File input = File.createTempFile("parallel_check", ".in");
+        File output = File.createTempFile("parallel_check", ".out");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        byte[] data = new byte[FILE_SIZE];
+        new Random(1).nextBytes(data);
+        Files.write(input.toPath(), data);
+
+        int wrong = 0;
+        int runs = 0;
+        for(String topology: topologies) {
+            SimpleNetwork network = new SimpleNetwork(topology);
+            network.buildRoutingTables();
+            for(Link link: network.getLinks()) {
+                boolean core = link.getStartNode().getIndex() >= network.getTopology().getHostCount()
+                        && link.getEndNode().getIndex() >= network.getTopology().getHostCount();
+                link.setQueueSize(core ? 30000 : 100000);
+                link.setBandwidth(core ? 10 : 100);
+                link.setLatency(core ? 10 : 2);
+            }
+            Simulator simulator = new Simulator(network);
+
+            ArrayList<Node> hosts = network.getHosts();
+            for(int i = 0; i < hosts.size(); i++) {
+                String source = hosts.get(i).getName();
+                String destination = hosts.get((i + 1) % hosts.size()).getName();
+                Simulator.Result expected = run(simulator, source, destination, input, output, 1, false);
+                byte[] expectedOutput = Files.readAllBytes(output.toPath());
+                if(expected.deliveredBytes() == 0) {
+                    System.out.println(topology + " " + source + " to " + destination + ": sequential run delivered nothing");
+                    wrong++;
+                    continue;
+                }
+                for(int workers: WORKERS) {
+                    for(boolean optimistic: new boolean[] {false, true}) {
+                        Simulator.Result result = run(simulator, source, destination, input, output, workers, optimistic);
+                        runs++;
+                        String error = compare(expected, result);
+                        if(error == null && !Arrays.equals(expectedOutput, Files.readAllBytes(output.toPath())))
+                            error = "output differs from the sequential run's";
+                        if(error != null) {
+                            System.out.println(topology + " " + source + " to " + destination + ", " + workers
+                                    + (optimistic ? " optimistic" : " conservative") + " workers: " + error);
+                            wrong++;
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(wrong + " of " + runs + " parallel runs differ from the sequential ones");
+        if(wrong > 0)
+            System.exit(1);
+    }
+
+    private static Simulator.Result run(Simulator simulator, String source, String destination, File input, File output,
+            int workers, boolean optimistic) {
+        return simulator.run(new Simulator.Flow(source, destination, input.getPath(), output.getPath())
+                .setEndTime(END_TIME).setParallel(workers, optimistic));
+    }
+
+    /**
+     * @return what differs, null if the runs came to the same
+     */
+    private static String compare(Simulator.Result expected, Simulator.Result result) {
+        if(expected.endTime() != result.endTime())
+            return "ended at " + result.endTime() + " ms, expected " + expected.endTime();
+        if(expected.deliveredBytes() != result.deliveredBytes())
+            return "delivered " + result.deliveredBytes() + " bytes, expected " + expected.deliveredBytes();
+        // the report and event count are left out, the engines count their own events and report more
+        Simulator.Result same = new Simulator.Result(expected.endTime(), expected.events(), expected.deliveredBytes(), result.sentBytes(),
+                result.sentPackets(), result.retransmissions(), result.duplicateAcks(), result.receivedPackets(), result.invalidChecksums(),
+                result.droppedPackets(), expected.report());
+        if(!same.equals(expected))
+            return "stats " + stats(result) + ", expected " + stats(expected);
+        return null;
+    }
+
+    private static String stats(Simulator.Result result) {
+        return "[sent " + result.sentBytes() + " bytes in " + result.sentPackets() + " packets, " + result.retransmissions()
+                + " retransmissions, " + result.duplicateAcks() + " duplicate acks, received " + result.receivedPackets()
+                + " packets, " + result.invalidChecksums() + " invalid checksums, dropped " + result.droppedPackets() + "]";
+    }
+}
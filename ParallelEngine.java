@@ -0,0 +1,247 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Conservative parallel engine.
+ * The topology is split into logical processes, each running its own scheduler on its own thread.
+ * A link between two partitions hands its arrivals to the receiving partition's inbox.
+ *
+ * Partitions move forward in windows separated by barriers. A window runs every event earlier
+ * than the globally earliest pending event plus the lookahead, which is the smallest latency of
+ * any cut link. Anything sent over a cut link during the window arrives after the window ends,
+ * so no partition ever gets an event in its past. With zero latency cut links a window only
+ * covers a single timestamp, which is still safe but leaves little to run in parallel.
+ */
+public class ParallelEngine {
+
+    private LogicalProcess[] processes;
+    private HashMap<Node, LogicalProcess> owner;
+    private long lookahead;         // in ns, SimTime.NEVER when no link is cut
+
+    // window state, only written by the barrier action
+    private long[] nextTimes;
+    private long windowEnd;
+    private boolean inclusive;
+    private boolean done;
+    private long windowCount = 0;
+    private long until = SimTime.NEVER;     // in ns, see setEndTime
+
+    private volatile RuntimeException failure = null;
+
+    ParallelEngine(SimpleNetwork network, int partitions, Scheduler.QueueType queueType) {
+        this.owner = new HashMap<>();
+        partition(network, partitions, queueType);
+        this.nextTimes = new long[this.processes.length];
+    }
+
+    /**
+     * cuts the nodes in breadth first order into equal chunks, so neighbours tend to
+     * end up together, then points every link at its partitions' schedulers
+     */
+    private void partition(SimpleNetwork network, int partitions, Scheduler.QueueType queueType) {
+        ArrayList<Node> order = bfsOrder(network);
+
+        int chunk = Math.max(1, (order.size() + partitions - 1) / Math.max(1, partitions));
+        int count = Math.max(1, (order.size() + chunk - 1) / chunk);
+        this.processes = new LogicalProcess[count];
+        for(int i = 0; i < count; i++)
+            this.processes[i] = createProcess(i, queueType);
+
+        for(int i = 0; i < order.size(); i++) {
+            LogicalProcess lp = this.processes[i / chunk];
+            lp.addNode(order.get(i));
+            this.owner.put(order.get(i), lp);
+        }
+
+        this.lookahead = SimTime.NEVER;
+        for(Link link: network.getLinks()) {
+            LogicalProcess from = this.owner.get(link.getStartNode());
+            LogicalProcess to = this.owner.get(link.getEndNode());
+            link.setSchedulers(from.getScheduler(), to.getScheduler());
+            if(from != to)
+                this.lookahead = Math.min(this.lookahead, link.getLatencyNanos());
+        }
+    }
+
+    protected LogicalProcess createProcess(int id, Scheduler.QueueType queueType) {
+        return new LogicalProcess(id, new Scheduler(queueType));
+    }
+
+    private static ArrayList<Node> bfsOrder(SimpleNetwork network) {
+        HashMap<Node, ArrayList<Node>> neighbours = new HashMap<>();
+        for(Link link: network.getLinks())
+            neighbours.computeIfAbsent(link.getStartNode(), n -> new ArrayList<>()).add(link.getEndNode());
+
+        ArrayList<Node> all = new ArrayList<>(network.getHosts());
+        all.addAll(network.getRouters());
+
+        ArrayList<Node> order = new ArrayList<>();
+        HashSet<Node> seen = new HashSet<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        for(Node start: all) {
+            if(!seen.add(start))
+                continue;
+            queue.add(start);
+            while(!queue.isEmpty()) {
+                Node curr = queue.poll();
+                order.add(curr);
+                for(Node next: neighbours.getOrDefault(curr, new ArrayList<>())) {
+                    if(seen.add(next))
+                        queue.add(next);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return the scheduler of the partition owning node, endpoints on that node must use it
+     */
+    public Scheduler getScheduler(Node node) {
+        return this.owner.get(node).getScheduler();
+    }
+
+    public LogicalProcess getProcess(Node node) {
+        return this.owner.get(node);
+    }
+
+    public LogicalProcess[] getProcesses() {
+        return this.processes;
+    }
+
+    /**
+     * @return in ns, SimTime.NEVER when no link is cut
+     */
+    public long getLookahead() {
+        return this.lookahead;
+    }
+
+    /**
+     * @param until in ns, the run stops before the first event after it
+     */
+    public void setEndTime(long until) {
+        this.until = until;
+    }
+
+    public long getEndTime() {
+        return this.until;
+    }
+
+    public long getWindowCount() {
+        return this.windowCount;
+    }
+
+    /**
+     * @return time of the last event run in any partition, in ns, what a sequential run ends at
+     */
+    public long getCurrentTime() {
+        long time = 0;
+        for(LogicalProcess lp: this.processes)
+            time = Math.max(time, lp.getScheduler().getCurrentTime());
+        return time;
+    }
+
+    public long getEventCount() {
+        long total = 0;
+        for(LogicalProcess lp: this.processes)
+            total += lp.getEventCount();
+        return total;
+    }
+
+    /**
+     * runs the simulation to the end, one thread per partition
+     */
+    public void run(TCPsender sender, TCPrecver receiver) {
+        CyclicBarrier windowBarrier = new CyclicBarrier(this.processes.length, this::openWindow);
+        CyclicBarrier postBarrier = new CyclicBarrier(this.processes.length);
+
+        Thread[] threads = new Thread[this.processes.length];
+        for(int i = 0; i < threads.length; i++) {
+            LogicalProcess lp = this.processes[i];
+            threads[i] = new Thread(() -> work(lp, sender, receiver, windowBarrier, postBarrier), "partition-" + i);
+            threads[i].start();
+        }
+
+        for(Thread thread: threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("interrupted while waiting for partitions");
+                return;
+            }
+        }
+
+        if(this.failure != null)
+            throw this.failure;
+    }
+
+    private void work(LogicalProcess lp, TCPsender sender, TCPrecver receiver, CyclicBarrier windowBarrier, CyclicBarrier postBarrier) {
+        try {
+            while(true) {
+                // everything sent to this partition last window is in the inbox by now
+                lp.getScheduler().drainInbox();
+                this.nextTimes[lp.getID()] = lp.getScheduler().nextEventTime();
+
+                windowBarrier.await();
+                if(this.done)
+                    return;
+
+                // a failing partition keeps going through the barriers so the others can stop with it
+                try {
+                    lp.runUntil(this.windowEnd, this.inclusive, sender, receiver);
+                } catch (RuntimeException e) {
+                    this.failure = e;
+                }
+
+                // wait until every partition is done posting before anyone drains
+                postBarrier.await();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * barrier action, picks the next window from the earliest pending event of every partition
+     */
+    private void openWindow() {
+        long min = SimTime.NEVER;
+        for(long time: this.nextTimes)
+            min = Math.min(min, time);
+
+        if(min == SimTime.NEVER || min > this.until || this.failure != null) {
+            this.done = true;
+            return;
+        }
+
+        this.windowCount++;
+        if(this.lookahead > 0 && SimTime.add(min, this.lookahead) > this.until) {
+            // the last window ends with the run
+            this.windowEnd = this.until;
+            this.inclusive = true;
+        }
+        else if(this.lookahead > 0) {
+            this.windowEnd = SimTime.add(min, this.lookahead);
+            this.inclusive = false;
+        }
+        else {
+            this.windowEnd = min;
+            this.inclusive = true;
+        }
+    }
+
+    public String getReport(int testNo) {
+        StringBuilder report = new StringBuilder();
+        report.append("Test " + testNo + ": parallel engine, " + this.processes.length + " partitions, lookahead "
+                + (this.lookahead == SimTime.NEVER ? "infinite" : SimTime.toMillis(this.lookahead) + " ms") + "\n");
+        report.append("  windows: " + this.windowCount + ", events: " + getEventCount() + "\n");
+        for(LogicalProcess lp: this.processes)
+            report.append("  " + lp + ", events: " + lp.getEventCount() + "\n");
+        return report.toString();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Running digest of the segments of a transfer with virtual payloads, where segments are only an
+ * offset and a length and no data is read or written. The sender adds every segment it cuts from
+ * the file and the receiver every segment it delivers in order, so at the end the two digests
+ * show whether all of the file arrived, in the right order and cut the same way.
+ * It is a handful of numbers however large the file is.
+ */
+public class PayloadDigest {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long hash = FNV_OFFSET;
+    private long bytes = 0;
+    private int segments = 0;
+    private long nextOffset = -1;       // where the next segment should start, -1 before the first
+    private int outOfOrder = 0;         // segments that didn't start where the one before ended
+
+    PayloadDigest() {
+    }
+
+    PayloadDigest(PayloadDigest other) {
+        this.hash = other.hash;
+        this.bytes = other.bytes;
+        this.segments = other.segments;
+        this.nextOffset = other.nextOffset;
+        this.outOfOrder = other.outOfOrder;
+    }
+
+    /**
+     * adds the next segment, FNV-1a over the offset and length so the order counts
+     */
+    public void add(long offset, int length) {
+        if(this.nextOffset != -1 && offset != this.nextOffset)
+            this.outOfOrder++;
+        this.nextOffset = offset + length;
+        this.hash = (this.hash ^ offset) * FNV_PRIME;
+        this.hash = (this.hash ^ length) * FNV_PRIME;
+        this.bytes += length;
+        this.segments++;
+    }
+
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    public int getSegments() {
+        return this.segments;
+    }
+
+    /**
+     * @param sent the sender's digest of the whole file
+     * @return true if every segment sent was delivered once, in order
+     */
+    public boolean matches(PayloadDigest sent) {
+        return this.outOfOrder == 0 && this.hash == sent.hash && this.bytes == sent.bytes && this.segments == sent.segments;
+    }
+
+    /**
+     * @param sent the sender's digest of the whole file
+     * @return one line comparing what was delivered with what was sent
+     */
+    public String report(PayloadDigest sent) {
+        String result = this.bytes + " of " + sent.bytes + " bytes delivered in " + this.segments + " of " + sent.segments + " segments";
+        if(matches(sent))
+            return result + ", complete and in order";
+        if(this.outOfOrder > 0)
+            result += ", " + this.outOfOrder + " out of order";
+        return result + ", digest differs";
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Check of the event order: feeds the same adds, peeks and polls to every event queue, with
+ * events of several origins piling up at the same times like the nodes of a network do, and
+ * compares what each queue polls with the (time, origin, sequence) order.
+ * Prints the seeds each queue got wrong, and exits with 1 if there were any.
+ * usage: java QueueOrderCheck [seeds] [operations per seed] (default 300 5000)
+ */
+public class QueueOrderCheck {
+
+    private static final int ORIGINS = 4;
+
+    public static void main(String[] args) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        boolean failed = false;
+        for(Scheduler.QueueType type: Scheduler.QueueType.values()) {
+            int wrong = 0;
+            for(int seed = 0; seed < seeds; seed++) {
+                String error = run(type, seed, operations);
+                if(error != null) {
+                    if(wrong < 5)
+                        System.out.println(type + " seed " + seed + ": " + error);
+                    wrong++;
+                }
+            }
+            System.out.println(type + ": " + wrong + " of " + seeds + " seeds out of order");
+            failed |= wrong > 0;
+        }
+        if(failed)
+            System.exit(1);
+    }
+
+    /**
+     * @return what went wrong, null if the queue kept the order
+     */
+    private static String run(Scheduler.QueueType type, long seed, int operations) {
+        Random random = new Random(seed);
+        EventQueue queue = Scheduler.newQueue(type, new ObjectPool<>(() -> new Event(null, 0)));
+        PriorityQueue<Event> expected = new PriorityQueue<>();
+        long[] sequences = new long[ORIGINS];
+        long now = 0;
+
+        for(int op = 0; op < operations || !expected.isEmpty(); op++) {
+            if(op < operations && (expected.isEmpty() || random.nextInt(100) < 55)) {
+                // nothing is scheduled in the past, most events land on a few coarse times
+                long time;
+                int pick = random.nextInt(100);
+                if(pick < 30)
+                    time = now;
+                else if(pick < 90)
+                    time = SimTime.add(now, random.nextInt(20) * 1000L);
+                else if(pick < 99)
+                    time = SimTime.add(now, random.nextInt(1000) * SimTime.NANOS_PER_MS);
+                else
+                    time = SimTime.NEVER;
+                int origin = random.nextInt(ORIGINS);
+                long sequence = ++sequences[origin];
+                // timeout checks are kept whole by the column queue, time waits are packed
+                boolean timeout = random.nextBoolean();
+                queue.add(event(timeout, time, origin, sequence));
+                expected.add(event(timeout, time, origin, sequence));
+                continue;
+            }
+
+            Event want = expected.poll();
+            Event peeked = queue.peek();
+            if(peeked == null || peeked.compareTo(want) != 0)
+                return "peek at op " + op + " gave " + describe(peeked) + ", expected " + describe(want);
+            Event got = queue.poll();
+            if(got == null || got.compareTo(want) != 0)
+                return "poll at op " + op + " gave " + describe(got) + ", expected " + describe(want);
+            if(queue.size() != expected.size())
+                return "size " + queue.size() + " at op " + op + ", expected " + expected.size();
+            now = want.getTime();
+        }
+        return queue.isEmpty() ? null : "not empty at the end";
+    }
+
+    private static Event event(boolean timeout, long time, int origin, long sequence) {
+        Event e = timeout ? new Event(null, 1, 1, Event.EventType.TIMEOUT_CHECK, time) : new Event(Event.EventType.TIME_WAIT, time);
+        e.stamp(origin, sequence);
+        return e;
+    }
+
+    private static String describe(Event e) {
+        if(e == null)
+            return "nothing";
+        return "(" + e.getTime() + ", " + e.getOrigin() + ", " + e.getSequence() + ")";
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.function.Consumer;
+
+/**
+ * The receiver's out of order segments, in a ring of slots with a bitmap of the occupied ones.
+ * A segment's slot is its sequence number in mss, modulo the capacity (a power of two at least
+ * the window), so no sequence numbers are boxed or hashed, and the segments that can be written
+ * once a gap fills are a run of set bits from the slot of the expected sequence number.
+ * At most window segments are held, and only up to capacity segments ahead of the expected one.
+ * The window owns the segments it holds, a stale one it pushes out goes to release.
+ */
+public class ReorderWindow {
+
+    private TCPmessage[] slots;
+    private long[] occupied;
+    private int mask;
+    private int mss;
+    private int window;     // most segments held at once
+    private int held = 0;
+    private Consumer<TCPmessage> release;
+
+    /**
+     * @param window most segments held at once, in segments
+     */
+    ReorderWindow(int window, int mss, Consumer<TCPmessage> release) {
+        int capacity = Integer.highestOneBit(Math.max(window, 1) - 1) << 1;
+        capacity = Math.max(capacity, 1);
+        this.slots = new TCPmessage[capacity];
+        this.occupied = new long[(capacity + 63) >>> 6];
+        this.mask = capacity - 1;
+        this.mss = mss;
+        this.window = window;
+        this.release = release;
+    }
+
+    /**
+     * @param copyMessages copies the segments for a forked run, otherwise they are shared (saved state
+     * of an optimistic run, whose segments aren't recycled)
+     */
+    ReorderWindow(ReorderWindow other, boolean copyMessages, Consumer<TCPmessage> release) {
+        this.release = release;
+        this.slots = other.slots.clone();
+        this.occupied = other.occupied.clone();
+        this.mask = other.mask;
+        this.mss = other.mss;
+        this.window = other.window;
+        this.held = other.held;
+        if(copyMessages) {
+            for(int i = 0; i < this.slots.length; i++) {
+                if(this.slots[i] != null)
+                    this.slots[i] = new TCPmessage(this.slots[i]);
+            }
+        }
+    }
+
+    private int slot(int seq) {
+        return (seq / this.mss) & this.mask;
+    }
+
+    private boolean isOccupied(int slot) {
+        return (this.occupied[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * holds a segment that arrived ahead of expectedSeq
+     * @return false if it is a duplicate, too far ahead or the window is full, the caller keeps it then
+     */
+    public boolean offer(TCPmessage segment, int expectedSeq) {
+        int seq = segment.getSequenceNo();
+        if(seq / this.mss - expectedSeq / this.mss > this.mask)
+            return false;
+
+        int slot = slot(seq);
+        if(isOccupied(slot)) {
+            TCPmessage old = this.slots[slot];
+            // a segment the expected sequence number went past without draining it is stale and makes room
+            if(old.getSequenceNo() >= expectedSeq)
+                return false;
+            this.release.accept(remove(slot));
+        }
+        if(this.held >= this.window)
+            return false;
+
+        this.slots[slot] = segment;
+        this.occupied[slot >>> 6] |= 1L << slot;
+        this.held++;
+        return true;
+    }
+
+    /**
+     * @return the segment starting at seq, taken out of the window, or null if it isn't held
+     */
+    public TCPmessage take(int seq) {
+        int slot = slot(seq);
+        if(!isOccupied(slot) || this.slots[slot].getSequenceNo() != seq)
+            return null;
+        return remove(slot);
+    }
+
+    private TCPmessage remove(int slot) {
+        TCPmessage segment = this.slots[slot];
+        this.slots[slot] = null;
+        this.occupied[slot >>> 6] &= ~(1L << slot);
+        this.held--;
+        return segment;
+    }
+
+    /**
+     * @return the number of occupied slots in a row from the slot of seq, a bit scan per 64 slots
+     */
+    public int runFrom(int seq) {
+        int capacity = this.mask + 1;
+        int position = slot(seq);
+        int run = 0;
+        while(run < capacity) {
+            int bit = position & 63;
+            int inWord = Math.min(64 - bit, capacity - position);
+            long free = ~this.occupied[position >>> 6] >>> bit;
+            int n = free == 0 ? 64 - bit : Long.numberOfTrailingZeros(free);
+            if(n < inWord)
+                return Math.min(run + n, capacity);
+            run += inWord;
+            position = (position + inWord) & this.mask;
+        }
+        return capacity;
+    }
+
+    /**
+     * @return the number of segments held
+     */
+    public int size() {
+        return this.held;
+    }
+
+    /**
+     * goes through the held segments in slot order
+     */
+    public void forEach(Consumer<TCPmessage> action) {
+        for(TCPmessage segment: this.slots) {
+            if(segment != null)
+                action.accept(segment);
+        }
+    }
+}
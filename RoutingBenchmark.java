@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Microbenchmark of the forwarding lookup: walks packets hop by hop between random host pairs
+ * of k-ary fat-trees of growing size, using the same next hop lookup as Node.send, and prints
+ * the time per hop. With ID-indexed tables it should stay about flat as the tree grows.
+ * usage: java RoutingBenchmark [k ...] (default 4 8 16 24 32, k even)
+ */
+public class RoutingBenchmark {
+
+    private static final int PAIRS = 4096;
+    private static final int ROUNDS = 5;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {4, 8, 16, 24, 32};
+        if(args.length > 0) {
+            sizes = new int[args.length];
+            for(int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for(int k: sizes) {
+            Path file = Files.createTempFile("fattree", ".topo");
+            try {
+                writeFatTree(file, k);
+                SimpleNetwork network = new SimpleNetwork(file.toString());
+                run(network, k);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void run(SimpleNetwork network, int k) {
+        ArrayList<Node> hosts = network.getHosts();
+        Random random = new Random(SEED);
+        Node[] sources = new Node[PAIRS];
+        short[] destinations = new short[PAIRS];
+        for(int i = 0; i < PAIRS; i++) {
+            sources[i] = hosts.get(random.nextInt(hosts.size()));
+            destinations[i] = hosts.get(random.nextInt(hosts.size())).getID();
+        }
+
+        // the first round warms up
+        walk(sources, destinations);
+        long best = Long.MAX_VALUE;
+        long hops = 0;
+        for(int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            hops = walk(sources, destinations);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        int nodes = hosts.size() + network.getRouters().size();
+        System.out.printf("k=%d nodes=%d hops=%d %.1f ns per hop%n", k, nodes, hops, (double) best / hops);
+    }
+
+    /**
+     * @return number of hops taken by all pairs
+     */
+    private static long walk(Node[] sources, short[] destinations) {
+        long hops = 0;
+        for(int i = 0; i < sources.length; i++) {
+            Node node = sources[i];
+            while(node.getID() != destinations[i]) {
+                node = node.nextHop(destinations[i]).getEndNode();
+                hops++;
+            }
+        }
+        return hops;
+    }
+
+    // k pods of k/2 edge and k/2 aggregation routers, (k/2)^2 core routers, k/2 hosts per edge router
+    private static void writeFatTree(Path file, int k) throws IOException {
+        int half = k / 2;
+        int id = 1;
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for(int pod = 0; pod < k; pod++) {
+                for(int edge = 0; edge < half; edge++) {
+                    for(int host = 0; host < half; host++)
+                        out.println("host h" + pod + "_" + edge + "_" + host + " " + id++);
+                }
+            }
+            for(int pod = 0; pod < k; pod++) {
+                for(int edge = 0; edge < half; edge++)
+                    out.println("router e" + pod + "_" + edge + " " + id++);
+                for(int agg = 0; agg < half; agg++)
+                    out.println("router a" + pod + "_" + agg + " " + id++);
+            }
+            for(int core = 0; core < half * half; core++)
+                out.println("router c" + core + " " + id++);
+
+            for(int pod = 0; pod < k; pod++) {
+                for(int edge = 0; edge < half; edge++) {
+                    for(int host = 0; host < half; host++)
+                        out.println("link e" + pod + "_" + edge + " h" + pod + "_" + edge + "_" + host + " 1000 100 1");
+                    for(int agg = 0; agg < half; agg++)
+                        out.println("link e" + pod + "_" + edge + " a" + pod + "_" + agg + " 1000 100 1");
+                }
+                for(int agg = 0; agg < half; agg++) {
+                    for(int core = 0; core < half; core++)
+                        out.println("link a" + pod + "_" + agg + " c" + (agg * half + core) + " 1000 100 1");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Next hops between every pair of nodes, found by one BFS per source over node indices.
+ * Nodes are numbered 0 to n-1 and links by their place in the network's link list, the
+ * adjacency is kept as arrays (each node's outgoing links are a range of one array), and
+ * the result is one int[] of link indices with a row per node and a column per destination ID,
+ * so forwarding a packet is one load and nothing is boxed or hashed.
+ * Sources are split over a fork-join pool, each task reusing its own queue.
+ * The tables only hold indices, so they are built once per Topology and every run over it shares them.
+ */
+public class RoutingTables {
+
+    private static final int SOURCES_PER_TASK = 32;
+
+    private final int n;
+    private final int columns;      // node IDs 0 to columns-1
+    private final int[] columnOf;   // ID column of each node, -1 for a node whose ID another node has
+    private final int[] next;       // next[from * columns + ID], the link from takes towards ID, -1 if there is none
+
+    // adjacency: the links leaving node i are adjLinks[adjStart[i]] to adjLinks[adjStart[i+1]-1]
+    private final int[] adjStart;
+    private final int[] adjLinks;
+    private final int[] linkTo;
+
+    /**
+     * @param n number of nodes
+     * @param linkFrom index of the node each link leaves
+     * @param linkTo index of the node each link goes to
+     * @param columnOf ID of each node, -1 for one that isn't found by its ID
+     * @param columns largest ID plus one
+     */
+    RoutingTables(int n, int[] linkFrom, int[] linkTo, int[] columnOf, int columns) {
+        this.n = n;
+        this.columns = columns;
+        this.columnOf = columnOf;
+        this.linkTo = linkTo;
+        this.adjStart = new int[n + 1];
+        this.adjLinks = new int[linkFrom.length];
+
+        for(int from: linkFrom)
+            this.adjStart[from + 1]++;
+        for(int i = 0; i < n; i++)
+            this.adjStart[i + 1] += this.adjStart[i];
+        int[] fill = Arrays.copyOf(this.adjStart, n);
+        // links go in in list order, so ties between equal paths break the same way every time
+        for(int link = 0; link < linkFrom.length; link++)
+            this.adjLinks[fill[linkFrom[link]]++] = link;
+
+        this.next = new int[Math.multiplyExact(n, columns)];
+        ForkJoinPool.commonPool().invoke(new BuildRows(0, n));
+    }
+
+    /**
+     * @return index of the link from takes towards the node with destID, -1 if there is no such
+     * node, it is from or it can't be reached
+     */
+    public int next(int from, short destID) {
+        if(destID < 0 || destID >= this.columns)
+            return -1;
+        return this.next[from * this.columns + destID];
+    }
+
+    /**
+     * @return the table, the next hop of node i towards ID d is at i * getColumns() + d, -1 if there
+     * is none. Nodes forward with it directly, it is shared by every run and must not be written to
+     */
+    public int[] getTable() {
+        return this.next;
+    }
+
+    /**
+     * @return largest node ID plus one
+     */
+    public int getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * @return index of the first link in list order going straight from one node to the other, -1 if there is none
+     */
+    public int linkBetween(int from, int to) {
+        // each node's links are in list order
+        for(int i = this.adjStart[from]; i < this.adjStart[from + 1]; i++) {
+            if(this.linkTo[this.adjLinks[i]] == to)
+                return this.adjLinks[i];
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of nodes
+     */
+    public int size() {
+        return this.n;
+    }
+
+    /**
+     * BFS from source over node indices, every node reached through a neighbour gets the link to
+     * that neighbour, then the row is laid out by ID
+     * @param queue scratch space of n entries
+     * @param hops scratch space of n entries
+     */
+    private void buildRow(int source, int[] queue, int[] hops) {
+        Arrays.fill(hops, -1);
+
+        int head = 0;
+        int tail = 0;
+        for(int i = this.adjStart[source]; i < this.adjStart[source + 1]; i++) {
+            int link = this.adjLinks[i];
+            int node = this.linkTo[link];
+            if(node != source && hops[node] == -1) {
+                hops[node] = link;
+                queue[tail++] = node;
+            }
+        }
+        while(head < tail) {
+            int curr = queue[head++];
+            int firstHop = hops[curr];
+            for(int i = this.adjStart[curr]; i < this.adjStart[curr + 1]; i++) {
+                int node = this.linkTo[this.adjLinks[i]];
+                if(node != source && hops[node] == -1) {
+                    hops[node] = firstHop;
+                    queue[tail++] = node;
+                }
+            }
+        }
+
+        int offset = source * this.columns;
+        Arrays.fill(this.next, offset, offset + this.columns, -1);
+        for(int node = 0; node < this.n; node++) {
+            if(this.columnOf[node] != -1)
+                this.next[offset + this.columnOf[node]] = hops[node];
+        }
+    }
+
+    // builds the rows of sources from to to-1, splitting the range until it is small
+    private class BuildRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        BuildRows(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(this.to - this.from <= SOURCES_PER_TASK) {
+                int[] queue = new int[n];
+                int[] hops = new int[n];
+                for(int source = this.from; source < this.to; source++)
+                    buildRow(source, queue, hops);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new BuildRows(this.from, middle), new BuildRows(middle, this.to));
+        }
+    }
+}
@@ -1,35 +1,329 @@
-import java.util.PriorityQueue;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Scheduler {
 
-    private double currentTime; // in ms
-    private PriorityQueue<Event> global_queue;
+    private long currentTime;   // in ns, see SimTime
+    private QueueType queueType;
+    private EventQueue global_queue;
+    private TimerWheel timers;      // timeout checks, kept out of the queue so they can be cancelled
+    private ConcurrentLinkedQueue<Event> inbox;     // events from other partitions, see post
+
+    private static final long TIMER_TICK = SimTime.NANOS_PER_MS;
+
+    // events are stamped with (origin, sequence) when they are made, to order events at the same time.
+    // the origin is the node an event comes from and the sequence counts that node's events, so the
+    // stamps don't depend on how the network is split into partitions, see stamp
+    private long[] sequences = new long[0];     // last sequence stamped, by node index
+
+    // timer stats
+    private int timersScheduled = 0;
+    private int timersCancelled = 0;
+
+    // recycled per packet objects, see acquire and release below for who owns what
+    private ObjectPool<Event> eventPool;
+    private ObjectPool<SimplePacket> packetPool;
+    private ObjectPool<TCPmessage> messagePool;
+    private PacketSlab slab;        // where serialized packets get their buffers, null until fitPackets
+
+    public static enum QueueType {
+        HEAP,
+        CALENDAR,
+        LADDER,
+        COLUMNS
+    }
+
+    Scheduler (){
+        this(QueueType.HEAP);
+    }
 
-    Scheduler (){   
+    Scheduler (QueueType type){
         this.currentTime = 0;
-        this.global_queue = new PriorityQueue<>();
+        this.queueType = type;
+        this.timers = new TimerWheel(TIMER_TICK);
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.eventPool = new ObjectPool<>(() -> new Event(null, 0));
+        this.packetPool = new ObjectPool<>(() -> new SimplePacket());
+        this.messagePool = new ObjectPool<>(() -> new TCPmessage(0, 0, 0, 0));
 
+        this.global_queue = newQueue(type, this.eventPool);
     }
 
-    public double getCurrentTime() {
+    /**
+     * @param pool where the column queue gives back and takes the events it packs
+     */
+    static EventQueue newQueue(QueueType type, ObjectPool<Event> pool) {
+        switch(type) {
+            case CALENDAR:
+                return new CalendarEventQueue();
+            case LADDER:
+                return new LadderEventQueue();
+            case COLUMNS:
+                return new ColumnEventQueue(pool);
+            default:
+                return new HeapEventQueue();
+        }
+    }
+
+    /**
+     * copy for a forked run, with copies of every pending event and timer, see ForkContext.
+     * The copy is registered as the context's scheduler. Pools start out empty and the inbox
+     * isn't copied, only sequential runs are forked.
+     */
+    public Scheduler copy(ForkContext context) {
+        Scheduler copy = new Scheduler(this.queueType);
+        context.setScheduler(copy);
+        copy.currentTime = this.currentTime;
+        copy.sequences = this.sequences.clone();
+        copy.timersScheduled = this.timersScheduled;
+        copy.timersCancelled = this.timersCancelled;
+        if(this.slab != null)
+            copy.slab = new PacketSlab(this.slab.getSlotSize());
+        this.global_queue.forEach(e -> copy.global_queue.add(context.event(e)));
+        copy.timers.advanceTo(this.currentTime);
+        this.timers.forEachPending(t -> context.put(t, copy.timers.add(context.event(t.getEvent()))));
+        return copy;
+    }
+
+    public long getCurrentTime() {
         return this.currentTime;
     }
 
-    public PriorityQueue<Event> getQueue() {
+    /**
+     * numbers an event made by the node with index source, before it is scheduled or sent.
+     * A node's events all run on the partition owning it, in the same order whatever the partitions,
+     * so its events get the same stamps in sequential and parallel runs
+     * @return the event
+     */
+    public Event stamp(Event e, int source) {
+        if(source >= this.sequences.length)
+            this.sequences = Arrays.copyOf(this.sequences, Math.max(source + 1, this.sequences.length * 2));
+        e.stamp(source, ++this.sequences[source]);
+        return e;
+    }
+
+    /**
+     * takes back the stamp of the last event its node made, an optimistic partition undoing the event
+     */
+    protected void unstamp(Event e) {
+        this.sequences[e.getOrigin()] = e.getSequence() - 1;
+    }
+
+    public EventQueue getQueue() {
         return this.global_queue;
     }
 
-    public void setCurrentTime(double time) {
+    public void setCurrentTime(long time) {
         this.currentTime = time;
     }
 
+    // e has its stamp already, see stamp
     public void schedule(Event e) {
         this.global_queue.add(e);
     }
 
+    /**
+     * schedules a timer event, it only reaches the event loop if it is not cancelled before its time
+     * @return handle for cancelling the timer
+     */
+    public TimerWheel.Timer scheduleTimer(Event e) {
+        this.timersScheduled++;
+        return this.timers.add(e);
+    }
+
+    public void cancelTimer(TimerWheel.Timer timer) {
+        if(timer == null || !timer.isPending())
+            return;
+        release(this.timers.cancel(timer));
+        this.timersCancelled++;
+    }
+
+    public boolean isEmpty() {
+        return this.global_queue.isEmpty() && this.timers.isEmpty();
+    }
+
+    public int getTimersScheduled() {
+        return this.timersScheduled;
+    }
+
+    /**
+     * @return the number of timer events that were cancelled and so never popped
+     */
+    public int getTimersCancelled() {
+        return this.timersCancelled;
+    }
+
+    /**
+     * Ownership of recycled objects:
+     *  - an event belongs to whoever acquired it until it is scheduled, then to the scheduler
+     *    (or the link queue holding it), and after runSchedule returns it to the caller,
+     *    which releases it once it is handled
+     *  - a packet is reference counted, the sender's reference plus one per event holding it,
+     *    everyone drops their reference with releasePacket
+     *  - a message belongs to whoever acquired it, and goes back with releaseMessage. A message
+     *    read in place from a packet's slot holds that packet until then
+     */
+    public Event acquireEvent() {
+        return this.eventPool.acquire();
+    }
+
+    /**
+     * releases an event and the reference it holds on its packet
+     */
+    public void release(Event e) {
+        if(e == null)
+            return;
+        if(e.getPacket() != null)
+            releasePacket(e.getPacket());
+        e.reset(null, 0, 0, null, 0, null, null);
+        this.eventPool.release(e);
+    }
+
+    /**
+     * @return a packet with a payload of payloadLength bytes, the caller holds one reference
+     */
+    public SimplePacket acquirePacket(short source, short dest, int payloadLength) {
+        SimplePacket packet = this.packetPool.acquire();
+        if(packet.getCapacity() < payloadLength && this.slab != null && payloadLength <= this.slab.getSlotSize())
+            packet.setBuffer(this.slab.slot());
+        packet.reset(source, dest, payloadLength);
+        return packet;
+    }
+
+    /**
+     * @return a packet carrying a copy of message (object encoding), the caller holds one reference
+     */
+    public SimplePacket acquirePacket(short source, short dest, TCPmessage message) {
+        SimplePacket packet = this.packetPool.acquire();
+        packet.reset(source, dest, message);
+        return packet;
+    }
+
+    public void releasePacket(SimplePacket packet) {
+        if(packet.release())
+            this.packetPool.release(packet);
+    }
+
+    public TCPmessage acquireMessage() {
+        return this.messagePool.acquire();
+    }
+
+    public void releaseMessage(TCPmessage message) {
+        SimplePacket frame = message.detachFrame();
+        if(frame != null)
+            releasePacket(frame);
+        this.messagePool.release(message);
+    }
+
+    /**
+     * makes serialized packets of up to mtu bytes fit in a slot of direct memory, packets that
+     * already have a big enough buffer keep it
+     */
+    public void fitPackets(int mtu) {
+        int slotSize = mtu - SimplePacket.HEADER_LENGTH;
+        if(this.slab == null || this.slab.getSlotSize() < slotSize)
+            this.slab = new PacketSlab(slotSize);
+    }
+
+    /**
+     * @return null if packets aren't given slots
+     */
+    public PacketSlab getSlab() {
+        return this.slab;
+    }
+
+    public ObjectPool<Event> getEventPool() {
+        return this.eventPool;
+    }
+
+    public ObjectPool<SimplePacket> getPacketPool() {
+        return this.packetPool;
+    }
+
+    public ObjectPool<TCPmessage> getMessagePool() {
+        return this.messagePool;
+    }
+
+    /**
+     * true with the column queue, which holds an arrival in a packed row but only as an Event while a
+     * link keeps it in flight, so links hand it every arrival instead, see Link.send
+     */
+    public boolean packsArrivals() {
+        return this.queueType == QueueType.COLUMNS;
+    }
+
+    /**
+     * true for the Time Warp partitions, which may have to take back events they already ran
+     */
+    public boolean isOptimistic() {
+        return false;
+    }
+
+    /**
+     * sends an event over a cut link to the partition owning its destination
+     */
+    public void sendTo(Scheduler target, Event e) {
+        target.post(e);
+    }
+
+    /**
+     * hands an event to this scheduler from another thread (a partition of the parallel engine),
+     * it stays in the inbox until the owning thread calls drainInbox
+     */
+    public void post(Event e) {
+        this.inbox.add(e);
+    }
+
+    public void drainInbox() {
+        Event e = this.inbox.poll();
+        while(e != null) {
+            this.global_queue.add(e);
+            e = this.inbox.poll();
+        }
+    }
+
+    /**
+     * @return the time of the next event to run, SimTime.NEVER if there is none
+     */
+    public long nextEventTime() {
+        Event next = peekNext();
+        return next == null ? SimTime.NEVER : next.getTime();
+    }
+
+    /**
+     * the earliest of the queue head and the due timers, without taking it out
+     */
+    private Event peekNext() {
+        Event next = this.global_queue.peek();
+
+        // bring the timers up to the next event so the ones due before it get a chance to run
+        if(next != null)
+            this.timers.advanceTo(next.getTime());
+        else
+            this.timers.advanceToNextTimer();
+
+        Event timer = this.timers.peekDue();
+        if(timer != null && (next == null || timer.compareTo(next) < 0))
+            return timer;
+        return next;
+    }
+
     public Event runSchedule() {
-        Event tobeRun = this.global_queue.poll();
+        Event next = peekNext();
+        if(next == null)
+            return null;
+
+        Event tobeRun;
+        if(next == this.timers.peekDue())
+            tobeRun = this.timers.pollDue();
+        else
+            tobeRun = this.global_queue.poll();
         this.currentTime = tobeRun.getTime();
+
+        // the link only had its head arrival in here, hand it the next one
+        if(tobeRun.getLink() != null)
+            tobeRun.getLink().delivered(tobeRun);
         return tobeRun;
     }
 }
@@ -0,0 +1,131 @@
+import java.util.function.Consumer;
+
+/**
+ * The sender's segments from the oldest unacknowledged one to the last sent, in a ring indexed by
+ * segment number. The capacity is a power of two that grows when the window outgrows it and
+ * halves when the window falls to a quarter of it, so memory follows cwnd rather than the file.
+ * Each slot remembers its segment number, so a lookup never returns a segment the ring has moved past.
+ * The ring owns the segments it holds, every one it lets go goes to release.
+ */
+public class SegmentRing {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private TCPmessage[] slots;
+    private int[] indexes;      // segment number held in each slot
+    private int first = 0;      // lowest segment number that may be held
+    private int held = 0;
+    private Consumer<TCPmessage> release;
+
+    SegmentRing(Consumer<TCPmessage> release) {
+        this.slots = new TCPmessage[MIN_CAPACITY];
+        this.indexes = new int[MIN_CAPACITY];
+        this.release = release;
+    }
+
+    // copy for a forked run, with copies of the segments
+    SegmentRing(SegmentRing other, Consumer<TCPmessage> release) {
+        this.release = release;
+        this.slots = other.slots.clone();
+        this.indexes = other.indexes.clone();
+        this.first = other.first;
+        this.held = other.held;
+        for(int i = 0; i < this.slots.length; i++) {
+            if(this.slots[i] != null)
+                this.slots[i] = new TCPmessage(this.slots[i]);
+        }
+    }
+
+    /**
+     * @return segment index, null if it isn't held
+     */
+    public TCPmessage get(int index) {
+        int slot = index & (this.slots.length - 1);
+        if(this.slots[slot] == null || this.indexes[slot] != index)
+            return null;
+        return this.slots[slot];
+    }
+
+    /**
+     * holds segment index, a segment below the oldest one kept isn't held
+     * @return false if the segment isn't held, it stays the caller's
+     */
+    public boolean put(int index, TCPmessage segment) {
+        if(index < this.first)
+            return false;
+        if(index - this.first >= this.slots.length)
+            resize(Integer.highestOneBit(index - this.first) << 1);
+
+        int slot = index & (this.slots.length - 1);
+        if(this.slots[slot] == null)
+            this.held++;
+        else if(this.slots[slot] != segment)
+            this.release.accept(this.slots[slot]);
+        this.slots[slot] = segment;
+        this.indexes[slot] = index;
+        return true;
+    }
+
+    /**
+     * lets go of the segments below first, they are acknowledged
+     * @param last the last segment sent, the ring shrinks if first to last is a quarter of it
+     */
+    public void releaseBefore(int first, int last) {
+        int end = Math.min(first, this.first + this.slots.length);
+        for(int index = this.first; index < end; index++) {
+            int slot = index & (this.slots.length - 1);
+            if(this.slots[slot] != null && this.indexes[slot] == index) {
+                this.release.accept(this.slots[slot]);
+                this.slots[slot] = null;
+                this.held--;
+            }
+        }
+        this.first = Math.max(this.first, first);
+
+        int span = last - this.first + 1;
+        if(this.slots.length > MIN_CAPACITY && span * 4 <= this.slots.length)
+            resize(this.slots.length / 2);
+    }
+
+    /**
+     * moves the oldest segment kept back to first, when an optimistic run rolls back an ack.
+     * Segments let go since then aren't held and are made again by the caller.
+     */
+    public void rewind(int first) {
+        if(first < this.first) {
+            this.first = first;
+            resize(this.slots.length);
+        }
+    }
+
+    /**
+     * @return the number of segments held
+     */
+    public int size() {
+        return this.held;
+    }
+
+    public int capacity() {
+        return this.slots.length;
+    }
+
+    // moves the segments from first on into a ring of the given capacity, the rest are let go
+    private void resize(int capacity) {
+        TCPmessage[] oldSlots = this.slots;
+        int[] oldIndexes = this.indexes;
+        this.slots = new TCPmessage[capacity];
+        this.indexes = new int[capacity];
+        this.held = 0;
+        for(int i = 0; i < oldSlots.length; i++) {
+            int index = oldIndexes[i];
+            if(oldSlots[i] != null && index >= this.first && index - this.first < capacity) {
+                int slot = index & (capacity - 1);
+                this.slots[slot] = oldSlots[i];
+                this.indexes[slot] = index;
+                this.held++;
+            }
+            else if(oldSlots[i] != null)
+                this.release.accept(oldSlots[i]);
+        }
+    }
+}
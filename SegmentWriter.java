@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a receiver's segments to its output file at their offsets.
+ * Segments are copied into a batch, and the batch goes to the file in one positional write once it
+ * is full, the next segment doesn't follow on from it, or it has waited FLUSH_INTERVAL of wall
+ * time. Without an executor the writes happen on the caller's thread. With one (shared by the
+ * receivers of runs going on side by side), full batches are written in the background and the
+ * caller goes on filling the next; at most MAX_IN_FLIGHT batches are out at once.
+ * Errors of background writes come back from the next write, flush or close.
+ */
+public class SegmentWriter {
+
+    private static final int BATCH_SIZE = 64 * 1024;            // in bytes
+    private static final long FLUSH_INTERVAL = 100_000_000L;    // in ns, 100 ms
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final int SHARED_THREADS = 2;                // file writes are short, a couple of threads keep up with many receivers
+
+    private FileChannel channel;
+    private ExecutorService executor;       // null to write on the caller's thread
+
+    private ByteBuffer batch;
+    private long batchPosition;             // file offset of the batch's first byte
+    private long batchStarted;              // System.nanoTime of its first segment
+
+    private ArrayDeque<InFlight> inFlight = new ArrayDeque<>();
+    private ArrayDeque<ByteBuffer> freeBatches = new ArrayDeque<>();
+
+    private record InFlight(Future<?> future, ByteBuffer batch) {}
+
+    /**
+     * creates or empties the file
+     * @param executor runs the file writes, null to write on the caller's thread
+     */
+    SegmentWriter(String filename, ExecutorService executor) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.executor = executor;
+        this.batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+    }
+
+    /**
+     * @return an executor for the writers of runs going on side by side, the caller shuts it down
+     */
+    static ExecutorService newSharedExecutor() {
+        return Executors.newFixedThreadPool(SHARED_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "segment-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param executor runs the file writes from now on, null to write on the caller's thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * writes the data from its position to its limit at position in the file, the data is left as it is
+     */
+    public void write(long position, ByteBuffer data) throws IOException {
+        write(position, data, data.position(), data.remaining());
+    }
+
+    /**
+     * writes length bytes of data from offset at position in the file, data is only read with
+     * absolute gets, so a buffer shared by many segments needs no view per segment
+     */
+    public void write(long position, ByteBuffer data, int offset, int length) throws IOException {
+        if(this.batch.position() > 0 && (position != this.batchPosition + this.batch.position() || length > this.batch.remaining()))
+            flush();
+
+        // too big to batch, it goes as it is
+        if(length > this.batch.capacity()) {
+            writeFully(data.slice(offset, length), position);
+            return;
+        }
+
+        if(this.batch.position() == 0) {
+            this.batchPosition = position;
+            this.batchStarted = System.nanoTime();
+        }
+        this.batch.put(this.batch.position(), data, offset, length);
+        this.batch.position(this.batch.position() + length);
+        if(!this.batch.hasRemaining() || System.nanoTime() - this.batchStarted >= FLUSH_INTERVAL)
+            flush();
+    }
+
+    /**
+     * hands the batch to the file, with an executor it may not be written yet when this returns
+     */
+    public void flush() throws IOException {
+        checkWrites(false);
+        if(this.batch.position() == 0)
+            return;
+
+        ByteBuffer full = this.batch.flip();
+        long position = this.batchPosition;
+        if(this.executor == null) {
+            writeFully(full, position);
+            full.clear();
+            return;
+        }
+
+        while(this.inFlight.size() >= MAX_IN_FLIGHT)
+            await(this.inFlight.pollFirst());
+        this.inFlight.addLast(new InFlight(this.executor.submit(() -> {
+            writeFully(full, position);
+            return null;
+        }), full));
+        this.batch = this.freeBatches.isEmpty() ? ByteBuffer.allocateDirect(BATCH_SIZE) : this.freeBatches.pollLast();
+    }
+
+    /**
+     * writes what is left and waits for it, the file stays open
+     */
+    public void sync() throws IOException {
+        flush();
+        checkWrites(true);
+    }
+
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while(data.hasRemaining())
+            position += this.channel.write(data, position);
+    }
+
+    /**
+     * takes back the batches that are written
+     * @param all waits for every write if true, otherwise only looks at the finished ones
+     */
+    private void checkWrites(boolean all) throws IOException {
+        while(!this.inFlight.isEmpty() && (all || this.inFlight.peekFirst().future().isDone()))
+            await(this.inFlight.pollFirst());
+    }
+
+    private void await(InFlight write) throws IOException {
+        try {
+            write.future().get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException io)
+                throw io;
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing");
+        } finally {
+            this.freeBatches.addLast(write.batch().clear());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check of the sender's sequence numbers: runs the same flow with the SYN at different initial
+ * sequence numbers. Segments, acks and timers go by the index of the segment in the file, so the
+ * numbering must not change anything but the numbers on the wire: every run has to deliver the
+ * whole file and end with the stats of the run starting at 0.
+ * Prints the runs that differ, and exits with 1 if there were any.
+ * usage: java SequenceCheck [topology file] (default topo/dumbbell.topo)
+ */
+public class SequenceCheck {
+
+    private static final int[] INITIAL_SEQUENCE_NOS = {0, 1, 1000003, 1 << 30};
+    private static final int FILE_SIZE = 200 * 1024;
+    private static final long END_TIME = SimTime.fromMillis(60000);
+
+    public static void main(String[] args) throws IOException {
+        String topology = args.length > 0 ? args[0] : "topo/dumbbell.topo";
+
+        File input = File.createTempFile("sequence_check", ".in");
+        File output = File.createTempFile("sequence_check", ".out");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        byte[] data = new byte[FILE_SIZE];
+        new Random(1).nextBytes(data);
+        Files.write(input.toPath(), data);
+
+        // the same links as ParallelCheck, the slow core drops segments so acks come back out of step
+        SimpleNetwork network = new SimpleNetwork(topology);
+        network.buildRoutingTables();
+        for(Link link: network.getLinks()) {
+            boolean core = link.getStartNode().getIndex() >= network.getTopology().getHostCount()
+                    && link.getEndNode().getIndex() >= network.getTopology().getHostCount();
+            link.setQueueSize(core ? 30000 : 100000);
+            link.setBandwidth(core ? 10 : 100);
+            link.setLatency(core ? 10 : 2);
+        }
+
+        Node source = network.getHosts().get(0);
+        Node destination = network.getHosts().get(network.getHosts().size() - 1);
+        String expected = null;
+        int wrong = 0;
+        for(int initial: INITIAL_SEQUENCE_NOS) {
+            String stats = run(network, source, destination, input, output, initial);
+            String error = null;
+            if(!Arrays.equals(data, Files.readAllBytes(output.toPath())))
+                error = "delivered " + output.length() + " of " + FILE_SIZE + " bytes or different ones";
+            else if(expected != null && !expected.equals(stats))
+                error = "stats " + stats + ", expected " + expected;
+            if(expected == null)
+                expected = stats;
+            if(error != null) {
+                System.out.println(source.getName() + " to " + destination.getName() + " from sequence number " + initial + ": " + error);
+                wrong++;
+            }
+        }
+        System.out.println(wrong + " of " + INITIAL_SEQUENCE_NOS.length + " initial sequence numbers differ");
+        if(wrong > 0)
+            System.exit(1);
+    }
+
+    /**
+     * @return the sender's and the receiver's stats
+     */
+    private static String run(SimpleNetwork network, Node source, Node destination, File input, File output, int initial) {
+        SimpleNetwork copy = network.copy();
+        Scheduler scheduler = new Scheduler();
+        copy.setScheduler(scheduler);
+        TCPsender sender = new TCPsender(source.getID(), destination.getID(), copy.getNode(source.getName()), input.getPath(),
+                NetworkSimulator.DEFAULT_MTU, scheduler, false);
+        TCPrecver receiver = new TCPrecver(destination.getID(), source.getID(), copy.getNode(destination.getName()), output.getPath(),
+                NetworkSimulator.DEFAULT_MTU, NetworkSimulator.DEFAULT_RECV_BUFFER_SIZE, scheduler, false);
+        sender.setInitialSequenceNo(initial);
+
+        receiver.listen();
+        sender.initConnection();
+        while(!scheduler.isEmpty() && scheduler.nextEventTime() <= END_TIME) {
+            Event event = scheduler.runSchedule();
+            Simulation.handleEvent(event, sender, receiver);
+            scheduler.release(event);
+        }
+        receiver.closeOutput();
+        return Arrays.toString(sender.returnStats()) + " " + Arrays.toString(receiver.returnStats());
+    }
+}
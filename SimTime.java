@@ -0,0 +1,34 @@
+/**
+ * Simulated time is a long count of nanoseconds from the start of a run. Integer times compare
+ * exactly, don't drift as they add up over a long run, and resolve latencies well below a ms.
+ * Parameters (link latency, warm-up, timeouts) and reports stay in ms, these convert at the edges.
+ */
+public class SimTime {
+
+    public static final long NANOS_PER_MS = 1_000_000L;
+    public static final long NEVER = Long.MAX_VALUE;    // after every event, for "nothing pending"
+
+    private SimTime() {
+    }
+
+    /**
+     * @return ms as a time or duration, rounded to the nearest ns
+     */
+    public static long fromMillis(double ms) {
+        if(ms >= NEVER / (double) NANOS_PER_MS)
+            return NEVER;
+        return Math.round(ms * NANOS_PER_MS);
+    }
+
+    public static double toMillis(long time) {
+        return (double) time / NANOS_PER_MS;
+    }
+
+    /**
+     * @return time plus a non-negative duration, NEVER if that is past the end of the clock
+     */
+    public static long add(long time, long duration) {
+        long sum = time + duration;
+        return sum < time ? NEVER : sum;
+    }
+}
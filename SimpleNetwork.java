@@ -3,44 +3,213 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Scanner;
 
+/**
+ * One run's view of a Topology. The topology, its parameters and routing tables are shared and
+ * never change, the network makes a Node or Link the first time the run asks for it and keeps on
+ * it what the run changes: link parameters set by a test or sweep, departure clocks and packets on
+ * the wire, the scheduler. A copy starts out empty, so a run only pays for the part of the network
+ * its packets go through.
+ * The network a topology is read or built into has all its nodes and links made, it is what runs
+ * are copied from and is only read while they go on.
+ */
 public class SimpleNetwork {
-    private ArrayList<Node> hosts;
-    private ArrayList<Node> routers;
-    private ArrayList<Link> links;
+    private Topology topology;              // null until the routing tables are built
+    private Topology.Builder builder;       // the hosts, routers and links added until then
+    private Node[] nodes;                   // by topology index, null until used
+    private Link[] links;
     private Scheduler scheduler;
 
-    SimpleNetwork(String filename, Scheduler scheduler) {
+    /**
+     * the topology read from a file, without a scheduler, every run sets its own with setScheduler
+     */
+    SimpleNetwork(String filename) {
+        this.builder = new Topology.Builder();
         setUpTopology(filename);
-        this.scheduler = scheduler;
     }
 
+    /**
+     * an empty network to build with addHost, addRouter and addLink, then buildRoutingTables
+     */
+    SimpleNetwork() {
+        this.builder = new Topology.Builder();
+    }
+
+    // a run's network over topology, with nothing made yet
+    private SimpleNetwork(Topology topology) {
+        this.topology = topology;
+        this.nodes = new Node[topology.getNodeCount()];
+        this.links = new Link[topology.getLinkCount()];
+    }
+
+    /**
+     * @return a network over the same topology for a run to change link parameters in and keep its
+     * own link state while other runs go on. Only the links whose parameters differ from the
+     * topology's are made in it
+     */
+    public SimpleNetwork copy() {
+        SimpleNetwork copy = new SimpleNetwork(this.topology);
+        for(Link link: this.links) {
+            if(link != null && !hasTopologyParameters(link))
+                copy.links[link.getId()] = new Link(link, copy.node(link.getStartNode().getIndex()), copy.node(link.getEndNode().getIndex()));
+        }
+        return copy;
+    }
+
+    /**
+     * copy with every node and link made so far, registered with context, so a forked run can map
+     * the state pointing into this network onto the copy
+     */
+    public SimpleNetwork copy(ForkContext context) {
+        SimpleNetwork copy = new SimpleNetwork(this.topology);
+        for(Node node: this.nodes) {
+            if(node != null)
+                context.put(node, copy.node(node.getIndex()));
+        }
+        for(Link link: this.links) {
+            if(link == null)
+                continue;
+            Link newLink = new Link(link, copy.node(link.getStartNode().getIndex()), copy.node(link.getEndNode().getIndex()));
+            copy.links[link.getId()] = newLink;
+            context.put(link, newLink);
+        }
+        return copy;
+    }
+
+    private boolean hasTopologyParameters(Link link) {
+        int id = link.getId();
+        return link.getQueueSize() == this.topology.getQueueSize(id) && link.getBandwidth() == this.topology.getBandwidth(id)
+                && link.getLatencyNanos() == this.topology.getLatency(id);
+    }
+
+    // the node with the topology index, made on first use
+    private Node node(int index) {
+        Node node = this.nodes[index];
+        return node != null ? node : makeNode(index);
+    }
+
+    /**
+     * @return the link with the topology index, made on first use with the topology's parameters
+     */
+    public Link getLink(int index) {
+        Link link = this.links[index];
+        return link != null ? link : makeLink(index);
+    }
+
+    // kept out of node and link so the lookups stay small enough to inline on every hop
+    private Node makeNode(int index) {
+        Node node = new Node(this.topology.getName(index), this.topology.getID(index), this, index);
+        node.setScheduler(this.scheduler);
+        this.nodes[index] = node;
+        return node;
+    }
+
+    private Link makeLink(int index) {
+        Link link = new Link(node(this.topology.getLinkFrom(index)), node(this.topology.getLinkTo(index)), this.topology.getQueueSize(index),
+                this.topology.getBandwidth(index), this.topology.getLatency(index), index);
+        link.setScheduler(this.scheduler);
+        this.links[index] = link;
+        return link;
+    }
+
+    // index of node in the topology, -1 if it isn't one of its nodes. Nodes are matched by name and ID so this works across copies
+    private int indexOf(Node node) {
+        int index = node.getIndex();
+        if(index < 0 || index >= this.nodes.length || !this.topology.getName(index).equals(node.getName()) || this.topology.getID(index) != node.getID())
+            return -1;
+        return index;
+    }
+
+    public Topology getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * @return the link going from n1 to n2, null if there is none
+     */
+    public Link getLink(Node n1, Node n2) {
+        int from = indexOf(n1);
+        int to = indexOf(n2);
+        if(from == -1 || to == -1)
+            return null;
+        int link = this.topology.linkBetween(from, to);
+        return link == -1 ? null : getLink(link);
+    }
+
+    /**
+     * the whole network, everything is made, for what goes over all of it like partitioning and printing
+     */
     public ArrayList<Node> getHosts() {
-        return this.hosts;
+        ArrayList<Node> hosts = new ArrayList<>();
+        for(int i = 0; i < this.topology.getHostCount(); i++)
+            hosts.add(node(i));
+        return hosts;
     }
     public ArrayList<Node> getRouters() {
-        return this.routers;
+        ArrayList<Node> routers = new ArrayList<>();
+        for(int i = this.topology.getHostCount(); i < this.nodes.length; i++)
+            routers.add(node(i));
+        return routers;
     }
     public ArrayList<Link> getLinks() {
-        return this.links;
+        ArrayList<Link> links = new ArrayList<>();
+        for(int i = 0; i < this.links.length; i++)
+            links.add(getLink(i));
+        return links;
     }
-    public Node getNodeFromID(short ID) {
-        Node node = null;
-        for(Node curr: hosts) {
-            if(curr.getID() == ID) {
-                node = curr;
-                break;
-            }
 
+    /**
+     * @return the links made so far, the only ones that can hold state
+     */
+    public ArrayList<Link> getLinksMade() {
+        ArrayList<Link> links = new ArrayList<>();
+        for(Link link: this.links) {
+            if(link != null)
+                links.add(link);
         }
-        if(node == null) {
-            for(Node curr: routers) {
-                if(curr.getID() == ID) {
-                    node = curr;
-                    break;
-                }
-            }
+        return links;
+    }
+
+    /**
+     * @return the link from takes towards to's ID, null if to is from or can't be reached.
+     * The routing tables have to be built
+     */
+    public Link nextLink(Node from, Node to) {
+        return from.nextHop(to.getID());
+    }
+
+    /**
+     * points every node and link at the scheduler of the run about to start, those made later get it too
+     */
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        for(Node node: this.nodes) {
+            if(node != null)
+                node.setScheduler(scheduler);
         }
-        return node;
+        for(Link link: this.links) {
+            if(link != null)
+                link.setScheduler(scheduler);
+        }
+    }
+
+    public Node getNodeFromID(short ID) {
+        int index = this.topology.indexOf(ID);
+        return index == -1 ? null : node(index);
+    }
+
+    /**
+     * @return the largest node ID plus one, the length of the tables indexed by ID
+     */
+    public int getIDRange() {
+        return this.topology.getIDRange();
+    }
+
+    /**
+     * @return the host or router called name, null if there is none
+     */
+    public Node getNode(String name) {
+        int index = this.topology.indexOf(name);
+        return index == -1 ? null : node(index);
     }
 
     /**
@@ -49,11 +218,6 @@ public class SimpleNetwork {
      */
     private void setUpTopology(String filename) {
 
-        // clear out old info first
-        hosts = new ArrayList<>();
-        routers = new ArrayList<>();
-        links = new ArrayList<>();
-
         File topoFile = new File(filename);
 
         try (Scanner readFile = new Scanner(topoFile)){
@@ -65,61 +229,39 @@ public class SimpleNetwork {
             }
         } catch (FileNotFoundException E) {
             System.out.println("File does not exit");
+            // an empty network, nothing will be found in it
+            buildRoutingTables();
             return;
         } 
 
+        long start = System.nanoTime();
         buildRoutingTables();
+        System.out.println("routing tables for " + this.topology.getNodeCount() + " nodes built in " + (System.nanoTime() - start) / 1000000 + " ms");
     }
 
     private boolean setUpHelper(String[] features) {
         if(features[0].equals("host")) {
-            hosts.add(new Node(features[1], Short.valueOf(features[2]), this, this.scheduler));
+            addHost(features[1], Short.valueOf(features[2]));
         }
         else if(features[0].equals("router")) {
-            routers.add(new Node(features[1], Short.valueOf(features[2]), this, this.scheduler));
+            addRouter(features[1], Short.valueOf(features[2]));
         }
         else if(features[0].equals("link")) {
-
-            Node n1 = null;
-            Node n2 = null;
-
-            for(Node n: hosts) {
-                if(n.getName().equals(features[1])) 
-                    n1 = n;
-                if(n.getName().equals(features[2])) 
-                    n2 = n;
-            }
-            for(Node n: routers) {
-                if(n.getName().equals(features[1])) 
-                    n1 = n;
-                if(n.getName().equals(features[2])) 
-                    n2 = n;
-            }
-
-            if(n1 == null || n2 == null || n1.equals(n2)) {
-                System.out.println("File format error");
-                return false;
-            }
-
             int queueSize;
             int bandwidth;
-            int latency;
-
+            double latency;
             try {
                 queueSize = Integer.valueOf(features[3]);
                 bandwidth = Integer.valueOf(features[4]);
-                latency = Integer.valueOf(features[5]);
+                latency = Double.parseDouble(features[5]);
             } catch (NumberFormatException e) {
                 System.out.println("File format error: not numbers");
                 return false;
             }
-            Link newLink1 = new Link(n1, n2, queueSize, bandwidth, latency, this.scheduler);
-            Link newLink2 = new Link(n2, n1, queueSize, bandwidth, latency, this.scheduler);
-            links.add(newLink1);
-            links.add(newLink2);
-            n1.addLink(n2, newLink2);
-            n2.addLink(n1, newLink1);
-
+            if(!addLink(features[1], features[2], queueSize, bandwidth, latency)) {
+                System.out.println("File format error");
+                return false;
+            }
         }
         else {
             System.out.println("File format error");
@@ -128,9 +270,39 @@ public class SimpleNetwork {
         
         return true;
     }
+
+    /**
+     * @return false once the routing tables are built, the topology can't change after that
+     */
+    public boolean addHost(String name, short ID) {
+        if(this.builder == null)
+            return false;
+        this.builder.addHost(name, ID);
+        return true;
+    }
+
+    public boolean addRouter(String name, short ID) {
+        if(this.builder == null)
+            return false;
+        this.builder.addRouter(name, ID);
+        return true;
+    }
+
+    /**
+     * links the nodes called n1 and n2 both ways
+     * @param latency in ms, fractions go down to the ns
+     * @return false if a node isn't there, they are the same node or the routing tables are built
+     */
+    public boolean addLink(String n1, String n2, int queueSize, int bandwidth, double latency) {
+        if(this.builder == null)
+            return false;
+        return this.builder.addLink(n1, n2, queueSize, bandwidth, SimTime.fromMillis(latency));
+    }
  
     public void printTopo() {
 
+        ArrayList<Node> hosts = getHosts();
+        ArrayList<Node> routers = getRouters();
         System.out.println("Hosts: ");
         for (Node node : hosts) {
             System.out.println(node);
@@ -140,36 +312,32 @@ public class SimpleNetwork {
             System.out.println(node);
         }
         System.out.println("Links: ");
-        for (Link link : links) {
+        for (Link link : getLinks()) {
             System.out.println(link);
         }
+        System.out.println("Routing tables: ");
+        for(Node node: hosts)
+            node.printTable();
+        for(Node node: routers)
+            node.printTable();
 
     }
 
     /**
-     * Use BFS to build routing tables for every node, starts at the first host
+     * Use BFS from every node to build the routing tables, sources run in parallel.
+     * Needed once the nodes and links are all added, and before the network is copied or used.
+     * Every node and link of this network is made, so runs can read it from many threads at once
      */
-    private void buildRoutingTables() {
-        Node[] nodeList = new Node[hosts.size() + routers.size()];
-        // System.out.println("hosts: ");
-        for(int i = 0; i < hosts.size(); i++) {
-            nodeList[i] = hosts.get(i);
-            // System.out.println(nodeList[i]);
-        }
-        // System.out.println("routers: ");
-        for(int i = 0; i < routers.size(); i++) {
-            nodeList[hosts.size() + i] = routers.get(i);
-            // System.out.println(nodeList[i]);
-        }
-        // System.out.println(" ------ end --------");
-        for(Node host: hosts) {
-            host.buildRoutingTable(nodeList);
-            host.printTable();
-        }
-        for(Node router: routers) {
-            router.buildRoutingTable(nodeList);
-            router.printTable();
-        }
-
+    public void buildRoutingTables() {
+        if(this.topology != null)
+            return;
+        this.topology = this.builder.build();
+        this.builder = null;
+        this.nodes = new Node[this.topology.getNodeCount()];
+        this.links = new Link[this.topology.getLinkCount()];
+        for(int i = 0; i < this.links.length; i++)
+            getLink(i);
+        for(int i = 0; i < this.nodes.length; i++)
+            node(i);
     }
 }
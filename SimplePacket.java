@@ -1,3 +1,6 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A simple packet class that acts like datagram packets without checksum.
  * Not implementing checksum to overcomplicate the emulator, but added the fields just in case.
@@ -8,16 +11,113 @@ public class SimplePacket {
     private short destID;
     private short length;           // recorded but not used, in bytes
     private short checksum = 0;     // not used
-    private byte[] payload;
+    private ByteBuffer payload;     // a slot of the scheduler's PacketSlab or a heap buffer, from index 0, can be longer than the packet
+    private AtomicInteger refCount = new AtomicInteger();   // holders of this packet, back to the pool at 0, shared across partitions
+    private TCPmessage message;     // the segment itself with the object encoding, kept when recycled
+    private Link[] route;           // links from the source to the destination with source routing, null to route hop by hop
 
     public final static short HEADER_LENGTH = 8; // in bytes
 
     SimplePacket(short source, short dest, byte[] payload) {
         this.sourceID = source;
         this.destID = dest;
-        this.payload = payload;
+        this.payload = ByteBuffer.wrap(payload);
+
+        this.length = (short) (HEADER_LENGTH + payload.length);
+    }
+
+    // for the packet pool, gets filled by reset
+    SimplePacket() {
+        this.payload = ByteBuffer.allocate(0);
+    }
+
+    // copy for a forked run, with the same holders as the original
+    SimplePacket(SimplePacket other) {
+        this.sourceID = other.sourceID;
+        this.destID = other.destID;
+        this.length = other.length;
+        this.checksum = other.checksum;
+        // a fork's packets live on the heap, the data of the original's slot is copied out
+        int used = Math.min(other.length - HEADER_LENGTH, other.payload.capacity());
+        this.payload = ByteBuffer.allocate(Math.max(used, 0));
+        if(used > 0)
+            this.payload.put(0, other.payload, 0, used);
+        this.message = other.message == null ? null : new TCPmessage(other.message);
+        this.route = other.route;
+        this.refCount.set(other.refCount.get());
+    }
+
+    /**
+     * refills a recycled packet with a payload of payloadLength bytes, the buffer is kept if it is
+     * big enough and a heap one is made otherwise, callers write into getBuffer()
+     */
+    void reset(short source, short dest, int payloadLength) {
+        this.sourceID = source;
+        this.destID = dest;
+        if(this.payload.capacity() < payloadLength)
+            this.payload = ByteBuffer.allocate(payloadLength);
+        this.length = (short) (HEADER_LENGTH + payloadLength);
+        this.route = null;
+        this.refCount.set(1);
+    }
+
+    /**
+     * refills a recycled packet with a copy of message instead of its serialized bytes (object encoding),
+     * the size is what the serialized segment would be
+     */
+    void reset(short source, short dest, TCPmessage message) {
+        this.sourceID = source;
+        this.destID = dest;
+        if(this.message == null)
+            this.message = new TCPmessage(0, 0, 0, 0);
+        this.message.copyFrom(message);
+        this.length = (short) (HEADER_LENGTH + TCPmessage.HEADER_LENGTH + message.getLength());
+        this.route = null;
+        this.refCount.set(1);
+    }
+
+    /**
+     * @return the segment carried with the object encoding, only valid for packets built that way
+     */
+    public TCPmessage getMessage() {
+        return this.message;
+    }
+
+    /**
+     * @return the links of the whole path with source routing, null if nodes look up the next hop
+     */
+    public Link[] getRoute() {
+        return this.route;
+    }
+
+    /**
+     * @param route the links from the source to the destination, shared by every packet of the flow
+     * and never changed. Packets can be in flight more than once (retransmissions) and are run again
+     * after a rollback, so where a packet is on its route is kept by each arrival event, not here
+     */
+    public void setRoute(Link[] route) {
+        this.route = route;
+    }
+
+    /**
+     * another holder (an event) keeps a reference to this packet
+     */
+    public void retain() {
+        this.refCount.incrementAndGet();
+    }
+
+    /**
+     * @return true if that was the last holder and the packet can go back to the pool
+     */
+    public boolean release() {
+        return this.refCount.decrementAndGet() == 0;
+    }
 
-        this.length = (short) (HEADER_LENGTH + this.payload.length);
+    /**
+     * @return true if one holder is left, the caller if it holds the packet, so no one else reads it
+     */
+    public boolean hasOneHolder() {
+        return this.refCount.get() == 1;
     }
 
     public short getSourceID() {
@@ -29,10 +129,35 @@ public class SimplePacket {
     public short getLength() {
         return this.length;
     }
+    // copies the payload out, getBuffer doesn't copy. Empty with the object encoding, see getMessage
     public byte[] getPayload() {
+        byte[] data = new byte[Math.min(this.length - HEADER_LENGTH, this.payload.capacity())];
+        this.payload.get(0, data);
+        return data;
+    }
+
+    /**
+     * @return the payload's buffer from index 0, longer than the payload when recycled,
+     * it is shared so only absolute gets and puts are used on it
+     */
+    public ByteBuffer getBuffer() {
         return this.payload;
     }
 
+    /**
+     * @return the most payload bytes the buffer holds
+     */
+    public int getCapacity() {
+        return this.payload.capacity();
+    }
+
+    /**
+     * gives the packet a slot of a PacketSlab, it keeps it from then on
+     */
+    void setBuffer(ByteBuffer slot) {
+        this.payload = slot;
+    }
+
     public void setSourceID(short source) {
         this.sourceID = source;
     }
@@ -40,13 +165,13 @@ public class SimplePacket {
         this.destID = dest;
     }
     public void setPayload(byte[] payload) {
-        this.payload = payload;
-        this.length = (short) (HEADER_LENGTH + this.payload.length);
+        this.payload = ByteBuffer.wrap(payload);
+        this.length = (short) (HEADER_LENGTH + payload.length);
     }
 
     // in bytes
     public int getSize() {
-        return HEADER_LENGTH + this.payload.length;
+        return this.length;
     }
 
 }
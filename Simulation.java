@@ -0,0 +1,415 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * One test run of the run command.
+ * Every run gets its own copy of the network, its own scheduler and its own TCP endpoints,
+ * so runs share nothing and can go on side by side. The report is returned instead of printed,
+ * so the caller can print the reports of parallel runs in test order.
+ * A run can also start from a snapshot taken after a shared warm-up instead of from the beginning.
+ */
+public class Simulation {
+
+    private int testNo;
+    private NetworkSimulator.TestConfig config;
+    private SimpleNetwork network;
+    private String inputFilename;
+    private String outputFilename;
+    private SweepSpec.Scenario scenario;    // null for a test of the run command
+    private Snapshot snapshot;              // null to start from the beginning
+    private ExecutorService outputExecutor; // shared by the runs going on side by side to write their output, null to write in line
+    private long until = SimTime.NEVER;     // in ns, see setEndTime
+
+    // results, set once run returns
+    private double endTime = 0.0;
+    private long eventCount = 0;
+    private int[] senderStats;
+    private int[] receiverStats;
+    private PayloadDigest sentDigest;
+    private PayloadDigest deliveredDigest;
+
+    /**
+     * @param network the network set up by the user, it is copied and left as it is
+     */
+    Simulation(int testNo, NetworkSimulator.TestConfig config, SimpleNetwork network, String inputFilename, String outputFilename) {
+        this.testNo = testNo;
+        this.config = config;
+        this.network = network;
+        this.inputFilename = inputFilename;
+        this.outputFilename = outputFilename;
+    }
+
+    /**
+     * a point of a parameter sweep, the scenario sets the links, mtu and window instead of the tested parameter
+     */
+    Simulation(int testNo, NetworkSimulator.TestConfig config, SimpleNetwork network, String inputFilename, String outputFilename, SweepSpec.Scenario scenario) {
+        this(testNo, config, network, inputFilename, outputFilename);
+        this.scenario = scenario;
+    }
+
+    /**
+     * a run forked from snapshot, the links (and the window of a scenario) are set on the fork
+     * @param scenario null for a test of the run command
+     */
+    Simulation(int testNo, NetworkSimulator.TestConfig config, Snapshot snapshot, String outputFilename, SweepSpec.Scenario scenario) {
+        this(testNo, config, null, null, outputFilename);
+        this.snapshot = snapshot;
+        this.scenario = scenario;
+    }
+
+    /**
+     * runs the network as it was set up until the given time and snapshots it there,
+     * so the runs sharing that start don't all simulate it again
+     * @param until simulated time in ms
+     * @return null if the snapshot couldn't be taken
+     */
+    static Snapshot warmUp(NetworkSimulator.TestConfig config, SimpleNetwork network, String inputFilename, double until) {
+        // a file of its own, so warm-ups going on at the same time don't write over each other
+        File warmupFile;
+        try {
+            warmupFile = File.createTempFile("test_warmup", ".txt");
+        } catch (IOException e) {
+            System.out.println("Error when creating warm-up file.");
+            return null;
+        }
+
+        SimpleNetwork copy = network.copy();
+        Scheduler scheduler = new Scheduler(config.queueType());
+        copy.setScheduler(scheduler);
+
+        Node sourceNode = copy.getNodeFromID(config.sourceID());
+        Node destNode = copy.getNodeFromID(config.destID());
+        TCPsender sender = new TCPsender(config.sourceID(), config.destID(), sourceNode, inputFilename, config.mtu(), scheduler, config.verbose());
+        TCPrecver receiver = new TCPrecver(config.destID(), config.sourceID(), destNode, warmupFile.getPath(), config.mtu(), config.rcvBufSize(), scheduler, config.verbose());
+
+        configureEndpoints(config, sender, receiver, 0);
+        receiver.listen();
+        sender.initConnection();
+        long events = runEvents(scheduler, sender, receiver, SimTime.fromMillis(until), null);
+
+        Snapshot snapshot = Snapshot.take(copy, scheduler, sender, receiver, warmupFile.getPath(), events);
+        receiver.closeOutput();
+        warmupFile.delete();
+        return snapshot;
+    }
+
+    public int getTestNo() {
+        return this.testNo;
+    }
+
+    /**
+     * @param executor writes the receiver's output in the background, it can be shared by many runs
+     */
+    public void setOutputExecutor(ExecutorService executor) {
+        this.outputExecutor = executor;
+    }
+
+    /**
+     * @param until in ns, the run stops before the first event after it, for flows that don't end
+     */
+    public void setEndTime(long until) {
+        this.until = until;
+    }
+
+    /**
+     * runs the test to the end
+     * @return the test's report
+     */
+    public String run() {
+        if(snapshot != null)
+            return runFork();
+
+        SimpleNetwork network = this.network.copy();
+        int mtu = config.mtu();
+        int window = config.rcvBufSize();
+        if(scenario != null) {
+            scenario.apply(network);
+            mtu = scenario.getMtu(mtu);
+            window = scenario.getWindow(window);
+        }
+        else {
+            configureLinks(network);
+        }
+
+        Node sourceNode = network.getNodeFromID(config.sourceID());
+        Node destNode = network.getNodeFromID(config.destID());
+
+        // in parallel each endpoint runs on the scheduler of the partition owning its node
+        Scheduler scheduler = new Scheduler(config.queueType());
+        ParallelEngine engine = null;
+        Scheduler senderScheduler = scheduler;
+        Scheduler receiverScheduler = scheduler;
+        if(config.workers() > 1) {
+            if(config.optimistic())
+                engine = new TimeWarpEngine(network, config.workers());
+            else
+                engine = new ParallelEngine(network, config.workers(), config.queueType());
+            senderScheduler = engine.getScheduler(sourceNode);
+            receiverScheduler = engine.getScheduler(destNode);
+        }
+        else {
+            network.setScheduler(scheduler);
+        }
+
+        TCPsender sender = new TCPsender(config.sourceID(), config.destID(), sourceNode, inputFilename, mtu, senderScheduler, config.verbose());
+        TCPrecver receiver = new TCPrecver(config.destID(), config.sourceID(), destNode, outputFilename, mtu, window, receiverScheduler, config.verbose());
+
+        /**
+         * flow:
+         * 1. sender init connection
+         * 2. go into while loop, get event from queue, get global time
+         * 3. do what the event is:
+         *      arrive: check which end node, if not, send onto link
+         *              if so, do the end node logic
+         *              might need to restructure tcp sender and recver, tcp sender may need a counter to send packets individually and not in a loop
+         *              also when sender sends, add a timeout event onto queue
+         *      timeout: check if the ack was received, if not, add a new event onto queue
+         * 4. go back to 2.
+         *
+         * So sender init connection by sending a packet ie calling node.send,
+         * then node calls link.send which puts the arrival event on the queue.
+         * then when queue is polled, the event is executed by calling node.send of the arrival node,
+         * then link.send again until the arrival node is the end node.
+         * Then i call tcp receiver's receive function to process the packet.
+         */
+
+        long allocatedBefore = allocatedBytes();
+
+        configureEndpoints(config, sender, receiver, testNo);
+        receiver.setOutputExecutor(outputExecutor);
+        receiver.listen();
+        sender.initConnection();    // only sends first handshake
+
+        // steady state is only watched for in sequential runs, NetworkSimulator and Simulator turn down a precision with workers
+        if(engine != null) {
+            engine.setEndTime(until);
+            engine.run(sender, receiver);
+            receiver.closeOutput();
+            collectResults(engine.getEventCount(), engine.getCurrentTime(), sender, receiver);
+            return engine.getReport(testNo) + payloadReport();
+        }
+
+        SteadyStateMonitor monitor = createMonitor(scheduler, receiver);
+        long events = runEvents(scheduler, sender, receiver, until, monitor);
+        // a run that ended before the connection closed still gets what it delivered into the file
+        receiver.closeOutput();
+        collectResults(events, scheduler.getCurrentTime(), sender, receiver);
+        return sequentialReport(allocatedBytes() - allocatedBefore, scheduler, monitor);
+    }
+
+    private String runFork() {
+        Snapshot.Fork fork = snapshot.fork(outputFilename);
+        fork.receiver().setOutputExecutor(outputExecutor);
+        if(scenario != null) {
+            scenario.apply(fork.network());
+            fork.receiver().setWindow(scenario.getWindow(config.rcvBufSize()));
+        }
+        else {
+            configureLinks(fork.network());
+        }
+
+        long allocatedBefore = allocatedBytes();
+        SteadyStateMonitor monitor = createMonitor(fork.scheduler(), fork.receiver());
+        long events = runEvents(fork.scheduler(), fork.sender(), fork.receiver(), until, monitor);
+        fork.receiver().closeOutput();
+        // the events of the warm-up count too, so the numbers compare with a run from the beginning
+        collectResults(snapshot.getEventCount() + events, fork.scheduler().getCurrentTime(), fork.sender(), fork.receiver());
+        return sequentialReport(allocatedBytes() - allocatedBefore, fork.scheduler(), monitor);
+    }
+
+    /**
+     * sets how segments are carried and whether they get corrupted, the test number seeds the corruption
+     */
+    private static void configureEndpoints(NetworkSimulator.TestConfig config, TCPsender sender, TCPrecver receiver, long seed) {
+        boolean corrupting = config.corruption() > 0;
+        sender.setEncoding(config.encoding(), corrupting);
+        receiver.setEncoding(config.encoding());
+        receiver.setCorruption(config.corruption(), seed);
+        sender.setPayloadMode(config.payload());
+        receiver.setPayloadMode(config.payload());
+        sender.setSourceRouting(config.sourceRouting());
+        receiver.setSourceRouting(config.sourceRouting());
+    }
+
+    /**
+     * @return a steady state monitor starting now if the run should stop at steady state, otherwise null
+     */
+    private SteadyStateMonitor createMonitor(Scheduler scheduler, TCPrecver receiver) {
+        if(config.precision() <= 0)
+            return null;
+        return new SteadyStateMonitor(config.precision(), SimTime.toMillis(scheduler.getCurrentTime()), receiver.returnStats()[0]);
+    }
+
+    /**
+     * runs events until the queue is empty, the next event is after until or monitor says
+     * the run has reached steady state
+     * @param until in ns, SimTime.NEVER to run to the end
+     * @param monitor null to run on regardless
+     * @return the number of events run
+     */
+    private static long runEvents(Scheduler scheduler, TCPsender sender, TCPrecver receiver, long until, SteadyStateMonitor monitor) {
+        long events = 0;
+        while(!scheduler.isEmpty() && (until == SimTime.NEVER || scheduler.nextEventTime() <= until)) {
+            Event currEvent = scheduler.runSchedule();
+            handleEvent(currEvent, sender, receiver);
+            events++;
+
+            // the event and its hold on the packet are done with
+            scheduler.release(currEvent);
+
+            if(monitor != null && monitor.observe(SimTime.toMillis(scheduler.getCurrentTime()), sender, receiver)) {
+                // the rest of the run is dropped, the output stays as far as it got
+                break;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * runs one event, shared by the sequential loop and the partitions of the parallel engine
+     */
+    static void handleEvent(Event currEvent, TCPsender sender, TCPrecver receiver) {
+        if(currEvent.getType() == Event.EventType.ARRIVE) {
+            // depending on whether the packet arrives at the receiver's or the sender's host, TCP receiver or sender is called
+            // (acks are addressed to the sender, so only the receiver's host ID tells them apart)
+            if(currEvent.getDestination().getID() == currEvent.getPacket().getDestinationID()) {
+                if(currEvent.getPacket().getDestinationID() == receiver.getID())
+                    receiver.receive(currEvent.getPacket());
+                else
+                    sender.receive(currEvent.getPacket());
+                // if ack for threeway handshake is received, start sending packets, done in TCPsender
+            }
+            // otherwise, just send packet down to the next node
+            else {
+                currEvent.getDestination().send(currEvent.getPacket(), currEvent.getHop());
+            }
+        }
+
+        if(currEvent.getType() == Event.EventType.TIMEOUT_CHECK) {
+            sender.checkTimeout(currEvent.getPacket(), currEvent.getSequenceNo(), currEvent.getLength());
+            // get a data structure from sender that records if a packet received an ack
+            // if received, just continue, if not, send packet again
+        }
+    }
+
+    private String sequentialReport(long allocated, Scheduler scheduler, SteadyStateMonitor monitor) {
+        StringBuilder report = new StringBuilder();
+        report.append("Test " + testNo + ": timer events avoided: " + scheduler.getTimersCancelled() + " of " + scheduler.getTimersScheduled() + "\n");
+        report.append(allocationReport(allocated, scheduler));
+        if(monitor != null)
+            report.append(monitor.getReport(testNo));
+        report.append(payloadReport());
+        return report.toString();
+    }
+
+    /**
+     * @return how the delivered segments compare with the file, empty unless payloads are virtual
+     */
+    private String payloadReport() {
+        if(config.payload() != TCPmessage.Payload.VIRTUAL)
+            return "";
+        return "Test " + testNo + ": virtual payload: " + deliveredDigest.report(sentDigest) + "\n";
+    }
+
+    private void collectResults(long events, long time, TCPsender sender, TCPrecver receiver) {
+        this.eventCount = events;
+        this.endTime = SimTime.toMillis(time);
+        this.senderStats = sender.returnStats();
+        this.receiverStats = receiver.returnStats();
+        this.sentDigest = sender.getDigest();
+        this.deliveredDigest = receiver.getDigest();
+    }
+
+    /**
+     * @return the time of the last event in ms
+     */
+    public double getEndTime() {
+        return this.endTime;
+    }
+
+    public long getEventCount() {
+        return this.eventCount;
+    }
+
+    /**
+     * @return bytes the receiver delivered in order, the size of its output if it has one
+     */
+    public long getDeliveredBytes() {
+        if(config.payload() == TCPmessage.Payload.VIRTUAL || outputFilename == null)
+            return this.deliveredDigest.getBytes();
+        return new File(outputFilename).length();
+    }
+
+    /**
+     * @return the sender's stats, see TCPsender.returnStats, null before the run
+     */
+    public int[] getSenderStats() {
+        return this.senderStats;
+    }
+
+    /**
+     * @return the receiver's stats, see TCPrecver.returnStats, null before the run
+     */
+    public int[] getReceiverStats() {
+        return this.receiverStats;
+    }
+
+    /**
+     * sets the tested parameter of the tested link, the first test keeps the topology's value
+     * and every test after it adds one step. A run with no tested link (see Simulator) keeps them all
+     */
+    private void configureLinks(SimpleNetwork network) {
+        if(config.links() == null)
+            return;
+        Link[] links = new Link[2];
+        for(int i = 0; i < 2; i++)
+            links[i] = network.getLink(config.links()[i].getStartNode(), config.links()[i].getEndNode());
+        int step = config.stepSize() * (testNo - 1);
+
+        switch(config.test()) {
+            case NetworkSimulator.LATENCY_TEST_NO:
+                long initialLatency = links[0].getLatencyNanos();
+                links[0].setLatencyNanos(initialLatency + step * SimTime.NANOS_PER_MS);
+                links[1].setLatencyNanos(initialLatency + step * SimTime.NANOS_PER_MS);
+                break;
+            case NetworkSimulator.BANDWIDTH_TEST_NO:
+                int initialBandwidth = links[0].getBandwidth();
+                links[0].setBandwidth(initialBandwidth + step);
+                links[1].setBandwidth(initialBandwidth + step);
+                break;
+            case NetworkSimulator.BUFFERSIZE_TEST_NO:
+                int initialBuffer = links[0].getQueueSize();
+                links[0].setQueueSize(initialBuffer + step);
+                links[1].setQueueSize(initialBuffer + step);
+                break;
+            default:
+                return;
+        }
+    }
+
+    /**
+     * @return bytes allocated by this thread so far, -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+            return threads.getCurrentThreadAllocatedBytes();
+        return -1;
+    }
+
+    private String allocationReport(long allocated, Scheduler scheduler) {
+        long packets = scheduler.getPacketPool().getCreatedCount() + scheduler.getPacketPool().getReusedCount();
+        StringBuilder report = new StringBuilder();
+        report.append("Test " + testNo + ": allocation report\n");
+        if(allocated >= 0) {
+            report.append("  allocated bytes: " + allocated + "\n");
+            if(packets > 0)
+                report.append("  allocated bytes per packet: " + (allocated / packets) + "\n");
+        }
+        report.append("  events created/reused: " + scheduler.getEventPool().getCreatedCount() + "/" + scheduler.getEventPool().getReusedCount() + "\n");
+        report.append("  packets created/reused: " + scheduler.getPacketPool().getCreatedCount() + "/" + scheduler.getPacketPool().getReusedCount() + "\n");
+        report.append("  messages created/reused: " + scheduler.getMessagePool().getCreatedCount() + "/" + scheduler.getMessagePool().getReusedCount() + "\n");
+        return report.toString();
+    }
+}
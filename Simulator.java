@@ -0,0 +1,191 @@
+/**
+ * Runs simulations from another program instead of the prompt of NetworkSimulator.
+ * A simulator holds a network, read from a topology file or built in code, and runs flows over it.
+ * Every run copies the network and gets its own scheduler and TCP endpoints, and nothing is kept
+ * in static fields, so any number of simulators, and runs of one simulator, can go on at once.
+ *
+ *   SimpleNetwork network = new SimpleNetwork();
+ *   network.addHost("h1", (short) 1);
+ *   network.addHost("h2", (short) 2);
+ *   network.addRouter("r1", (short) 3);
+ *   network.addLink("h1", "r1", 100, 1000, 2.0);
+ *   network.addLink("r1", "h2", 100, 1000, 2.0);
+ *   Simulator.Result result = new Simulator(network).run(new Simulator.Flow("h1", "h2", "in.txt", "out.txt").setMtu(9000));
+ */
+public class Simulator {
+
+    private final SimpleNetwork network;
+
+    /**
+     * @param network builds its routing tables if needed, the runs don't change it and nothing else
+     * should while they go on
+     */
+    public Simulator(SimpleNetwork network) {
+        network.buildRoutingTables();
+        this.network = network;
+    }
+
+    /**
+     * @param topologyFile a topology in the format of the setup command
+     */
+    public Simulator(String topologyFile) {
+        this(new SimpleNetwork(topologyFile));
+    }
+
+    public SimpleNetwork getNetwork() {
+        return this.network;
+    }
+
+    /**
+     * runs flow to the end on a copy of the network, this can be called from many threads at once
+     * @throws IllegalArgumentException if the flow's hosts aren't in the network or its settings don't go together
+     */
+    public Result run(Flow flow) {
+        Node source = network.getNode(flow.source);
+        Node destination = network.getNode(flow.destination);
+        if(source == null || destination == null)
+            throw new IllegalArgumentException("Flow endpoints not found in the network.");
+        if(flow.payload == TCPmessage.Payload.VIRTUAL && flow.encoding != TCPmessage.Encoding.OBJECT)
+            throw new IllegalArgumentException("Virtual payloads need the object encoding.");
+        if(flow.precision > 0 && flow.workers > 1)
+            throw new IllegalArgumentException("Steady state detection is only for sequential runs.");
+
+        // a single run of no test, so the links keep the parameters of the topology
+        NetworkSimulator.TestConfig config = new NetworkSimulator.TestConfig(source.getID(), destination.getID(), source, destination, null,
+                0, flow.inputFile, -1, 0, 1, flow.mtu, flow.window, flow.verbose, flow.queueType, flow.workers, flow.optimistic,
+                1, null, null, 0.0, flow.precision, flow.encoding, flow.corruption, flow.payload, flow.sourceRouting);
+        Simulation simulation = new Simulation(1, config, network, flow.inputFile, flow.outputFile);
+        simulation.setEndTime(flow.endTime);
+        String report = simulation.run();
+
+        int[] sender = simulation.getSenderStats();
+        int[] receiver = simulation.getReceiverStats();
+        return new Result(simulation.getEndTime(), simulation.getEventCount(), simulation.getDeliveredBytes(),
+                sender[1], sender[3], sender[4], sender[5], receiver[2], receiver[4], receiver[5], report);
+    }
+
+    /**
+     * what a run came to
+     * @param endTime time of the last event in ms
+     * @param deliveredBytes bytes the receiver delivered in order
+     * @param sentBytes data bytes the sender sent, retransmissions included
+     * @param receivedPackets packets that reached the receiver
+     * @param droppedPackets segments the receiver dropped, duplicates and those its window had no room for
+     * @param report what the prompt prints for the run
+     */
+    public record Result(
+        double endTime,
+        long events,
+        long deliveredBytes,
+        int sentBytes,
+        int sentPackets,
+        int retransmissions,
+        int duplicateAcks,
+        int receivedPackets,
+        int invalidChecksums,
+        int droppedPackets,
+        String report
+    ) {}
+
+    /**
+     * one TCP transfer of a file between two hosts, with the settings of the run command.
+     * The setters return the flow so they can be chained
+     */
+    public static class Flow {
+        private final String source;
+        private final String destination;
+        private final String inputFile;
+        private final String outputFile;
+        private int mtu = NetworkSimulator.DEFAULT_MTU;
+        private int window = NetworkSimulator.DEFAULT_RECV_BUFFER_SIZE;
+        private Scheduler.QueueType queueType = Scheduler.QueueType.HEAP;
+        private int workers = 1;
+        private boolean optimistic = false;
+        private TCPmessage.Encoding encoding = TCPmessage.Encoding.BYTES;
+        private TCPmessage.Payload payload = TCPmessage.Payload.REAL;
+        private double corruption = 0.0;
+        private double precision = 0.0;
+        private boolean sourceRouting = false;
+        private boolean verbose = false;
+        private long endTime = SimTime.NEVER;   // in ns
+
+        /**
+         * @param source name of the sending host
+         * @param destination name of the receiving host
+         * @param inputFile the file sent
+         * @param outputFile where the receiver writes it, flows running at the same time each need their own
+         */
+        public Flow(String source, String destination, String inputFile, String outputFile) {
+            this.source = source;
+            this.destination = destination;
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+        }
+
+        // in bytes
+        public Flow setMtu(int mtu) {
+            this.mtu = mtu;
+            return this;
+        }
+
+        // receive window, in segments
+        public Flow setWindow(int window) {
+            this.window = window;
+            return this;
+        }
+
+        public Flow setQueueType(Scheduler.QueueType queueType) {
+            this.queueType = queueType;
+            return this;
+        }
+
+        /**
+         * @param workers partitions of the network run in parallel, 1 to run sequentially
+         * @param optimistic Time Warp instead of the conservative engine
+         */
+        public Flow setParallel(int workers, boolean optimistic) {
+            this.workers = workers;
+            this.optimistic = optimistic;
+            return this;
+        }
+
+        public Flow setEncoding(TCPmessage.Encoding encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        public Flow setPayload(TCPmessage.Payload payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        // share of arriving segments with a flipped bit
+        public Flow setCorruption(double rate) {
+            this.corruption = rate;
+            return this;
+        }
+
+        // stops the run at steady state, see SteadyStateMonitor, 0 runs it to the end
+        public Flow setPrecision(double precision) {
+            this.precision = precision;
+            return this;
+        }
+
+        public Flow setSourceRouting(boolean sourceRouting) {
+            this.sourceRouting = sourceRouting;
+            return this;
+        }
+
+        // in ms, the run stops before the first event after it
+        public Flow setEndTime(double endTime) {
+            this.endTime = SimTime.fromMillis(endTime);
+            return this;
+        }
+
+        // prints every segment sent and received
+        public Flow setVerbose(boolean verbose) {
+            this.verbose = verbose;
+            return this;
+        }
+    }
+}
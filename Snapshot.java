@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Frozen copy of a sequential run at some simulated time: the network with its link clocks and
+ * packets on the wire, the scheduler with its pending events and timers, both TCP endpoints
+ * with their windows and buffers, and what the receiver had written to its file.
+ * Every fork is another copy of it, so a fork can change link parameters and run on to the end
+ * while the snapshot stays as it was. Forks can be taken from several threads.
+ */
+public class Snapshot {
+
+    private Fork state;
+    private byte[] written;
+    private long eventCount;
+
+    /**
+     * a run copied from a snapshot, ready to go on from the snapshot's time
+     */
+    record Fork(SimpleNetwork network, Scheduler scheduler, TCPsender sender, TCPrecver receiver) {}
+
+    private Snapshot(Fork state, byte[] written, long eventCount) {
+        this.state = state;
+        this.written = written;
+        this.eventCount = eventCount;
+    }
+
+    /**
+     * copies a sequential run, it is left as it was
+     * @param outputFilename the file the receiver writes to
+     * @param eventCount events the run went through so far
+     * @return null if the receiver's output couldn't be read
+     */
+    public static Snapshot take(SimpleNetwork network, Scheduler scheduler, TCPsender sender, TCPrecver receiver, String outputFilename, long eventCount) {
+        byte[] written = new byte[0];
+        try {
+            // virtual payloads leave no output
+            if(receiver.getPayloadMode() == TCPmessage.Payload.REAL) {
+                receiver.syncOutput();
+                written = Files.readAllBytes(Paths.get(outputFilename));
+            }
+        } catch (IOException e) {
+            System.out.println("Error when reading output for snapshot.");
+            return null;
+        }
+        return new Snapshot(copy(network, scheduler, sender, receiver, null), written, eventCount);
+    }
+
+    /**
+     * @param outputFilename file the fork's receiver writes to, it starts with the output written before the snapshot
+     */
+    public synchronized Fork fork(String outputFilename) {
+        Fork fork = copy(state.network(), state.scheduler(), state.sender(), state.receiver(), outputFilename);
+        fork.receiver().resumeOutput(this.written);
+        return fork;
+    }
+
+    private static Fork copy(SimpleNetwork network, Scheduler scheduler, TCPsender sender, TCPrecver receiver, String outputFilename) {
+        ForkContext context = new ForkContext();
+        SimpleNetwork networkCopy = network.copy(context);
+        Scheduler schedulerCopy = scheduler.copy(context);
+        networkCopy.setScheduler(schedulerCopy);
+        for(Link link: network.getLinksMade())
+            context.link(link).copyState(link, context);
+        return new Fork(networkCopy, schedulerCopy, new TCPsender(sender, context), new TCPrecver(receiver, context, outputFilename));
+    }
+
+    /**
+     * @return the time of the snapshot in ms
+     */
+    public double getTime() {
+        return SimTime.toMillis(state.scheduler().getCurrentTime());
+    }
+
+    public long getEventCount() {
+        return this.eventCount;
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.Arrays;
+
+/**
+ * Watches a run for steady state, so a throughput study can stop once it knows the answer
+ * instead of going on to the end of the file and the time wait.
+ * Every SAMPLE_INTERVAL of simulated time it samples the receiver's throughput, the sender's
+ * rtt estimate and its congestion window. The start-up transient is cut off with MSER-5: the
+ * samples are averaged in groups of 5 and the cut is where the rest has the smallest
+ * standard error. The rest is split into BATCHES batch means for a 95% confidence interval.
+ * The run has converged once every interval is within the given share of its mean.
+ */
+public class SteadyStateMonitor {
+
+    private static final double SAMPLE_INTERVAL = 50.0;     // in ms
+    private static final int MSER_GROUP = 5;
+    private static final int BATCHES = 10;
+    private static final double T_QUANTILE = 2.262;         // t distribution, 0.975 with BATCHES - 1 degrees of freedom
+    private static final int CHECK_INTERVAL = 10;           // samples between convergence checks
+
+    private double precision;       // half width of the intervals as a share of the mean
+    private double startTime;
+    private double nextSample;
+    private int lastBytes;
+    private boolean converged = false;
+    private double convergedTime;
+
+    private Metric throughput = new Metric("throughput", "KB/s");
+    private Metric rtt = new Metric("rtt", "ms");
+    private Metric cwnd = new Metric("cwnd", "segments");
+
+    /**
+     * samples of one measure and its latest estimate
+     */
+    private static class Metric {
+        private String name;
+        private String unit;
+        private double[] samples = new double[64];
+        private int size = 0;
+
+        // latest estimate
+        private int truncated = 0;      // samples cut off as warm-up
+        private double mean = 0.0;
+        private double halfWidth = Double.MAX_VALUE;
+
+        Metric(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        void add(double sample) {
+            if(this.size == this.samples.length)
+                this.samples = Arrays.copyOf(this.samples, this.size * 2);
+            this.samples[this.size++] = sample;
+        }
+
+        /**
+         * MSER-5 truncation, then batch means over what is left
+         * @return false if there aren't enough samples yet
+         */
+        boolean estimate() {
+            int groups = this.size / MSER_GROUP;
+            if(groups < 2 * BATCHES)
+                return false;
+
+            double[] groupMeans = new double[groups];
+            for(int g = 0; g < groups; g++) {
+                double sum = 0.0;
+                for(int i = g * MSER_GROUP; i < (g + 1) * MSER_GROUP; i++)
+                    sum += this.samples[i];
+                groupMeans[g] = sum / MSER_GROUP;
+            }
+
+            // suffix sums give the mean and spread of every cut in one pass, the cut stays in the first half
+            double sum = 0.0;
+            double sumSquares = 0.0;
+            int bestCut = groups - 1;
+            double best = Double.MAX_VALUE;
+            for(int d = groups - 1; d >= 0; d--) {
+                sum += groupMeans[d];
+                sumSquares += groupMeans[d] * groupMeans[d];
+                int n = groups - d;
+                if(d > groups / 2)
+                    continue;
+                double mser = (sumSquares - sum * sum / n) / ((double) n * n);
+                if(mser <= best) {
+                    best = mser;
+                    bestCut = d;
+                }
+            }
+
+            int first = bestCut * MSER_GROUP;
+            int batchSize = (groups * MSER_GROUP - first) / BATCHES;
+            if(batchSize < MSER_GROUP)
+                return false;
+
+            double[] batchMeans = new double[BATCHES];
+            double total = 0.0;
+            for(int b = 0; b < BATCHES; b++) {
+                double batchSum = 0.0;
+                for(int i = first + b * batchSize; i < first + (b + 1) * batchSize; i++)
+                    batchSum += this.samples[i];
+                batchMeans[b] = batchSum / batchSize;
+                total += batchMeans[b];
+            }
+            double mean = total / BATCHES;
+            double variance = 0.0;
+            for(double batchMean: batchMeans)
+                variance += (batchMean - mean) * (batchMean - mean);
+            variance /= BATCHES - 1;
+
+            this.truncated = first;
+            this.mean = mean;
+            this.halfWidth = T_QUANTILE * Math.sqrt(variance / BATCHES);
+            return true;
+        }
+
+        boolean withinPrecision(double precision) {
+            return this.halfWidth <= precision * Math.abs(this.mean);
+        }
+
+        public String toString() {
+            if(this.halfWidth == Double.MAX_VALUE)
+                return this.name + ": not enough samples";
+            return this.name + ": " + String.format("%.4f", this.mean) + " +- " + String.format("%.4f", this.halfWidth) + " " + this.unit
+                    + " (first " + this.truncated + " samples cut)";
+        }
+    }
+
+    /**
+     * @param precision half width of the 95% intervals as a share of the mean, for example 0.05
+     * @param startTime simulated time sampling starts from, in ms
+     * @param startBytes bytes the receiver had received by then
+     */
+    SteadyStateMonitor(double precision, double startTime, int startBytes) {
+        this.precision = precision;
+        this.startTime = startTime;
+        this.lastBytes = startBytes;
+        this.nextSample = startTime + SAMPLE_INTERVAL;
+    }
+
+    /**
+     * called after every event, takes the samples that are due
+     * @return true once the run has converged and can stop
+     */
+    public boolean observe(double time, TCPsender sender, TCPrecver receiver) {
+        if(this.converged)
+            return true;
+
+        // the state only changes at events, so an interval without any gets the state as it was
+        while(time >= this.nextSample) {
+            int bytes = receiver.returnStats()[0];
+            this.throughput.add((bytes - this.lastBytes) / SAMPLE_INTERVAL);
+            this.lastBytes = bytes;
+            this.rtt.add(sender.getEstimatedRtt());
+            this.cwnd.add(sender.getCongestionWindow());
+            this.nextSample += SAMPLE_INTERVAL;
+
+            if(this.throughput.size % CHECK_INTERVAL == 0 && check()) {
+                this.converged = true;
+                this.convergedTime = this.nextSample - SAMPLE_INTERVAL;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean check() {
+        // all of them are estimated so the report has them all
+        boolean estimated = this.throughput.estimate() & this.rtt.estimate() & this.cwnd.estimate();
+        return estimated && this.throughput.withinPrecision(this.precision) && this.rtt.withinPrecision(this.precision)
+                && this.cwnd.withinPrecision(this.precision);
+    }
+
+    public boolean hasConverged() {
+        return this.converged;
+    }
+
+    /**
+     * @return the estimates with their intervals
+     */
+    public String getReport(int testNo) {
+        if(!this.converged)
+            check();
+
+        StringBuilder report = new StringBuilder();
+        if(this.converged)
+            report.append("Test " + testNo + ": steady state reached, stopped at " + String.format("%.2f", this.convergedTime) + " ms\n");
+        else
+            report.append("Test " + testNo + ": steady state not reached within " + String.format("%.0f", this.precision * 100) + "% before the run ended\n");
+        report.append("  samples: " + this.throughput.size + " every " + SAMPLE_INTERVAL + " ms from " + String.format("%.2f", this.startTime) + " ms, 95% intervals\n");
+        report.append("  " + this.throughput + "\n");
+        report.append("  " + this.rtt + "\n");
+        report.append("  " + this.cwnd + "\n");
+        return report.toString();
+    }
+}
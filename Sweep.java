@@ -0,0 +1,123 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every scenario of a SweepSpec and writes one csv row per scenario as it finishes.
+ * Scenarios are taken from the spec one at a time and only a few per thread are queued or
+ * running at once, so neither the scenarios nor their results pile up in memory however large
+ * the sweep is. Rows come out in the order scenarios finish, the scenario column tells them apart.
+ */
+public class Sweep {
+
+    private static final int QUEUED_PER_THREAD = 2;
+
+    private SweepSpec spec;
+    private NetworkSimulator.TestConfig config;
+    private SimpleNetwork network;
+    private String inputFilename;
+    private Snapshot snapshot;      // scenarios fork from it when there is a warm-up
+
+    private BufferedWriter out;
+    private long rowsWritten = 0;
+    private long failures = 0;
+
+    Sweep(SweepSpec spec, NetworkSimulator.TestConfig config, SimpleNetwork network, String inputFilename) {
+        this.spec = spec;
+        this.config = config;
+        this.network = network;
+        this.inputFilename = inputFilename;
+    }
+
+    /**
+     * runs the sweep to the end
+     * @param resultFilename csv file the rows go to
+     */
+    public void run(String resultFilename) {
+        if(config.warmup() > 0) {
+            this.snapshot = Simulation.warmUp(config, network, inputFilename, config.warmup());
+            if(this.snapshot == null)
+                return;
+        }
+
+        try {
+            this.out = new BufferedWriter(new FileWriter(resultFilename));
+            this.out.write(this.spec.getHeader() + ",end_time,events,packets_sent,retransmissions,dup_acks,bytes_delivered,out_of_order_dropped");
+            this.out.newLine();
+        } catch (IOException e) {
+            System.out.println("Error when creating sweep result file.");
+            return;
+        }
+
+        int threads = Math.max(1, config.threads());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore slots = new Semaphore(threads * QUEUED_PER_THREAD);
+
+        try {
+            for(SweepSpec.Scenario scenario: this.spec) {
+                slots.acquire();
+                pool.execute(() -> {
+                    try {
+                        runScenario(scenario);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+            System.out.println("interrupted, sweep stopped");
+        }
+
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            System.out.println("Error when closing sweep result file.");
+        }
+        System.out.println("Sweep done: " + this.rowsWritten + " of " + this.spec.size() + " scenarios written to " + resultFilename + ", " + this.failures + " failed");
+    }
+
+    private void runScenario(SweepSpec.Scenario scenario) {
+        // no output file, the receiver only counts what it delivers
+        Simulation simulation;
+        if(this.snapshot != null)
+            simulation = new Simulation((int) scenario.getIndex(), config, this.snapshot, null, scenario);
+        else
+            simulation = new Simulation((int) scenario.getIndex(), config, network, inputFilename, null, scenario);
+        try {
+            simulation.run();
+        } catch (RuntimeException e) {
+            synchronized(this) {
+                this.failures++;
+            }
+            System.out.println("Scenario " + scenario.getIndex() + " failed: " + e);
+            return;
+        }
+        long delivered = simulation.getDeliveredBytes();
+
+        int[] sender = simulation.getSenderStats();
+        int[] receiver = simulation.getReceiverStats();
+        String row = scenario.toCsv() + "," + simulation.getEndTime() + "," + simulation.getEventCount()
+                + "," + sender[3] + "," + sender[4] + "," + sender[5] + "," + delivered + "," + receiver[5];
+        writeRow(row);
+    }
+
+    private synchronized void writeRow(String row) {
+        try {
+            this.out.write(row);
+            this.out.newLine();
+            // flushed per row so a long sweep can be followed, and nothing is lost if it is stopped
+            this.out.flush();
+            this.rowsWritten++;
+        } catch (IOException e) {
+            this.failures++;
+            System.out.println("Error when writing sweep result file.");
+        }
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * Parameter sweep read from a spec file, one dimension per line:
+ *
+ *   latency r1:r2 10 50 10     grid, from 10 to 50 in steps of 10
+ *   bandwidth r1:r2 1,5,10     list
+ *   buffersize r1:r2 ...       the link parameters set both directions of the link
+ *   mtu 500 1500 500
+ *   window 10,20,40            receiver window in segments
+ *
+ * Blank lines and lines starting with # are skipped.
+ * The scenarios are every combination of the dimensions' values. They are never all held at once,
+ * scenario i is decoded from i on demand, the last dimension changing fastest.
+ */
+public class SweepSpec implements Iterable<SweepSpec.Scenario> {
+
+    private ArrayList<Dimension> dimensions;
+    private long size;
+
+    public static enum Parameter {
+        LATENCY,
+        BANDWIDTH,
+        BUFFERSIZE,
+        MTU,
+        WINDOW
+    }
+
+    private static class Dimension {
+        private Parameter parameter;
+        private Node from;      // only for the link parameters
+        private Node to;
+        private int[] values;
+
+        Dimension(Parameter parameter, Node from, Node to, int[] values) {
+            this.parameter = parameter;
+            this.from = from;
+            this.to = to;
+            this.values = values;
+        }
+
+        public String getName() {
+            String name = this.parameter.name().toLowerCase();
+            if(this.from != null)
+                name += "_" + this.from.getName() + ":" + this.to.getName();
+            return name;
+        }
+    }
+
+    /**
+     * one point of the sweep
+     */
+    public class Scenario {
+        private long index;
+        private int[] values;
+
+        Scenario(long index) {
+            this.index = index;
+            this.values = new int[dimensions.size()];
+            for(int d = dimensions.size() - 1; d >= 0; d--) {
+                int[] choices = dimensions.get(d).values;
+                this.values[d] = choices[(int) (index % choices.length)];
+                index /= choices.length;
+            }
+        }
+
+        public long getIndex() {
+            return this.index;
+        }
+
+        /**
+         * sets the scenario's link parameters on a copy of the network it was parsed against
+         */
+        public void apply(SimpleNetwork network) {
+            for(int d = 0; d < dimensions.size(); d++) {
+                Dimension dim = dimensions.get(d);
+                if(dim.from == null)
+                    continue;
+                Link[] links = {network.getLink(dim.from, dim.to), network.getLink(dim.to, dim.from)};
+                for(Link link: links) {
+                    switch(dim.parameter) {
+                        case LATENCY:
+                            link.setLatency(this.values[d]);
+                            break;
+                        case BANDWIDTH:
+                            link.setBandwidth(this.values[d]);
+                            break;
+                        case BUFFERSIZE:
+                            link.setQueueSize(this.values[d]);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+
+        public int getMtu(int defaultMtu) {
+            return get(Parameter.MTU, defaultMtu);
+        }
+
+        public int getWindow(int defaultWindow) {
+            return get(Parameter.WINDOW, defaultWindow);
+        }
+
+        private int get(Parameter parameter, int defaultValue) {
+            int value = defaultValue;
+            for(int d = 0; d < dimensions.size(); d++) {
+                if(dimensions.get(d).parameter == parameter)
+                    value = this.values[d];
+            }
+            return value;
+        }
+
+        /**
+         * @return the scenario's values as csv fields, in the order of getHeader
+         */
+        public String toCsv() {
+            StringBuilder row = new StringBuilder();
+            row.append(this.index);
+            for(int value: this.values)
+                row.append(",").append(value);
+            return row.toString();
+        }
+    }
+
+    private SweepSpec() {
+        this.dimensions = new ArrayList<>();
+        this.size = 1;
+    }
+
+    /**
+     * reads a spec file, links are looked up in network
+     * @return null if the file can't be read or has an error, which is printed
+     */
+    public static SweepSpec load(String filename, SimpleNetwork network) {
+        SweepSpec spec = new SweepSpec();
+        int lineNo = 0;
+        try (Scanner readFile = new Scanner(new File(filename))) {
+            while(readFile.hasNextLine()) {
+                String line = readFile.nextLine().trim();
+                lineNo++;
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                Dimension dim = parseLine(line.split("\\s+"), network);
+                if(dim == null) {
+                    System.out.println("Sweep spec error on line " + lineNo + ": " + line);
+                    return null;
+                }
+                spec.dimensions.add(dim);
+                spec.size = Math.multiplyExact(spec.size, dim.values.length);
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Sweep spec file does not exist");
+            return null;
+        } catch (ArithmeticException e) {
+            System.out.println("Sweep spec has too many scenarios");
+            return null;
+        }
+        return spec;
+    }
+
+    private static Dimension parseLine(String[] features, SimpleNetwork network) {
+        Parameter parameter;
+        try {
+            parameter = Parameter.valueOf(features[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        Node from = null;
+        Node to = null;
+        int next = 1;
+        if(parameter != Parameter.MTU && parameter != Parameter.WINDOW) {
+            if(features.length < 2)
+                return null;
+            String[] nodes = features[1].split(":");
+            if(nodes.length != 2)
+                return null;
+            from = network.getNode(nodes[0]);
+            to = network.getNode(nodes[1]);
+            if(from == null || to == null || network.getLink(from, to) == null || network.getLink(to, from) == null)
+                return null;
+            next = 2;
+        }
+
+        int[] values;
+        try {
+            if(features.length - next == 1)
+                values = parseList(features[next]);
+            else if(features.length - next == 3)
+                values = parseGrid(Integer.parseInt(features[next]), Integer.parseInt(features[next + 1]), Integer.parseInt(features[next + 2]));
+            else
+                return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if(values == null || values.length == 0)
+            return null;
+        return new Dimension(parameter, from, to, values);
+    }
+
+    private static int[] parseList(String list) {
+        String[] split = list.split(",");
+        int[] values = new int[split.length];
+        for(int i = 0; i < split.length; i++)
+            values[i] = Integer.parseInt(split[i]);
+        return values;
+    }
+
+    private static int[] parseGrid(int from, int to, int step) {
+        if(step <= 0 || to < from)
+            return null;
+        int[] values = new int[(to - from) / step + 1];
+        for(int i = 0; i < values.length; i++)
+            values[i] = from + i * step;
+        return values;
+    }
+
+    /**
+     * @return true if some dimension changes parameter
+     */
+    public boolean has(Parameter parameter) {
+        for(Dimension dim: this.dimensions) {
+            if(dim.parameter == parameter)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of scenarios
+     */
+    public long size() {
+        return this.size;
+    }
+
+    public Scenario get(long index) {
+        return new Scenario(index);
+    }
+
+    /**
+     * @return the csv header for the scenario fields
+     */
+    public String getHeader() {
+        StringBuilder header = new StringBuilder("scenario");
+        for(Dimension dim: this.dimensions)
+            header.append(",").append(dim.getName());
+        return header.toString();
+    }
+
+    public Iterator<Scenario> iterator() {
+        return new Iterator<Scenario>() {
+            private long next = 0;
+
+            public boolean hasNext() {
+                return this.next < size;
+            }
+
+            public Scenario next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                return new Scenario(this.next++);
+            }
+        };
+    }
+}
@@ -19,6 +19,19 @@ public class TCPStat {
             this.mode = 1;
     }
 
+    // copy, for saving the state of an optimistic run
+    TCPStat(TCPStat other) {
+        this.sentDataSize = other.sentDataSize;
+        this.sentPacketCount = other.sentPacketCount;
+        this.receivedDataSize = other.receivedDataSize;
+        this.receivedPacketCount = other.receivedPacketCount;
+        this.retransmissionCount = other.retransmissionCount;
+        this.dupAckCount = other.dupAckCount;
+        this.invalidChecksumCount = other.invalidChecksumCount;
+        this.droppedPacketCount = other.droppedPacketCount;
+        this.mode = other.mode;
+    }
+
     public void addSentData(int packets, int size) {
         sentPacketCount += packets;
         sentDataSize += size;
@@ -40,7 +53,10 @@ public class TCPStat {
         droppedPacketCount += count;
     }
 
-    public void printPackets(TCPmessage message, String sndRcv, double time, boolean verbose) {
+    /**
+     * @param time in ns, printed in ms
+     */
+    public void printPackets(TCPmessage message, String sndRcv, long time, boolean verbose) {
 
         if(!verbose)
             return; 
@@ -57,7 +73,7 @@ public class TCPStat {
         output.append(" ");
         output.append(sndRcv);
         output.append(" ");
-        output.append(time);
+        output.append(SimTime.toMillis(time));
         output.append(" ");
         if(message.isSYN())
             output.append("S");
@@ -1,4 +1,6 @@
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 /**
  * Class for a TCP segment
@@ -6,11 +8,18 @@ import java.nio.ByteBuffer;
 public class TCPmessage{
     private int sequenceNo;
     private int acknowledgment;
-    private double timestamp;
+    private long timestamp;                 // in ns
     private int length;
     private int flags;
     private short checksum;
     private byte[] payload;
+    private ByteBuffer mappedPayload;       // the sender's mapped file, or the slot of the packet it arrived in, instead of payload
+    private int payloadOffset;              // index of the data in mappedPayload, which is only read with absolute gets
+    private SimplePacket frame;             // packet whose slot mappedPayload is, held until Scheduler.releaseMessage
+
+    // checksum cache, the payload's partial sum is kept so retransmissions only sum the header
+    private int payloadSum = -1;            // -1 if not summed yet
+    private boolean checksumValid = false;  // checksum matches the fields
 
     public final static int HEADER_LENGTH = 24;
 
@@ -18,7 +27,29 @@ public class TCPmessage{
     private boolean Fflag;
     private boolean Aflag;
 
-    TCPmessage(int sequenceNo, int acknowledgment, int length, double currentTime) {
+    /**
+     * how segments travel in packets
+     *  - BYTES: serialized into the packet's payload and parsed back at the other end
+     *  - OBJECT: a copy of the message rides along with the packet, checksums are only computed
+     *    when corruption is modeled. Both give the same packet sizes and timing.
+     */
+    public static enum Encoding {
+        BYTES,
+        OBJECT
+    }
+
+    /**
+     * what segments carry
+     *  - REAL: the bytes of the file, the receiver writes them to its output
+     *  - VIRTUAL: only a length, the sequence number is the offset in the file. Nothing is read
+     *    or written, sender and receiver keep a PayloadDigest instead. Needs the object encoding.
+     */
+    public static enum Payload {
+        REAL,
+        VIRTUAL
+    }
+
+    TCPmessage(int sequenceNo, int acknowledgment, int length, long currentTime) {
         this.sequenceNo = sequenceNo;
         this.acknowledgment = acknowledgment;
         this.timestamp = currentTime;
@@ -32,6 +63,93 @@ public class TCPmessage{
         this.payload = null;
     }
 
+    // copy for a forked run, the payload array is copied too since received messages sit in recycled arrays,
+    // and so is data in a packet's slot. A mapped file is shared
+    TCPmessage(TCPmessage other) {
+        this.sequenceNo = other.sequenceNo;
+        this.acknowledgment = other.acknowledgment;
+        this.timestamp = other.timestamp;
+        this.length = other.length;
+        this.flags = other.flags;
+        this.checksum = other.checksum;
+        this.Sflag = other.Sflag;
+        this.Fflag = other.Fflag;
+        this.Aflag = other.Aflag;
+        this.payload = other.payload == null ? null : other.payload.clone();
+        this.mappedPayload = other.mappedPayload;
+        this.payloadOffset = other.payloadOffset;
+        if(other.frame != null) {
+            this.payload = other.getPayload();
+            this.mappedPayload = null;
+        }
+        this.payloadSum = other.payloadSum;
+        this.checksumValid = other.checksumValid;
+    }
+
+    /**
+     * copies every field of other, for the object encoding.
+     * The payload is shared, nothing writes into a payload once a segment is built,
+     * and a packet other views is held by this message as well
+     * @return this message
+     */
+    TCPmessage copyFrom(TCPmessage other) {
+        this.sequenceNo = other.sequenceNo;
+        this.acknowledgment = other.acknowledgment;
+        this.timestamp = other.timestamp;
+        this.length = other.length;
+        this.flags = other.flags;
+        this.checksum = other.checksum;
+        this.Sflag = other.Sflag;
+        this.Fflag = other.Fflag;
+        this.Aflag = other.Aflag;
+        this.payload = other.payload;
+        this.mappedPayload = other.mappedPayload;
+        this.payloadOffset = other.payloadOffset;
+        this.frame = other.frame;
+        if(this.frame != null)
+            this.frame.retain();
+        this.payloadSum = other.payloadSum;
+        this.checksumValid = other.checksumValid;
+        return this;
+    }
+
+    /**
+     * flips one random bit of the sequence or acknowledgment number, for modeling corruption
+     * on the wire. The header is used so a shared payload array is never touched.
+     */
+    public void corrupt(Random random) {
+        int bit = random.nextInt(64);
+        if(bit < 32)
+            this.sequenceNo ^= 1 << bit;
+        else
+            this.acknowledgment ^= 1 << (bit - 32);
+        this.checksumValid = false;
+    }
+
+    /**
+     * refills a recycled message like the constructor does, the payload array is kept for reuse
+     * but the message has no data until length is set again. A packet it viewed is let go of by
+     * Scheduler.releaseMessage, not here
+     * @return this message
+     */
+    TCPmessage reset(int sequenceNo, int acknowledgment, int length, long currentTime) {
+        this.sequenceNo = sequenceNo;
+        this.acknowledgment = acknowledgment;
+        this.timestamp = currentTime;
+        this.length = length;
+        this.flags = 0;
+        this.checksum = 0;
+        this.Sflag = false;
+        this.Fflag = false;
+        this.Aflag = false;
+        this.mappedPayload = null;
+        this.payloadOffset = 0;
+        this.frame = null;
+        this.payloadSum = -1;
+        this.checksumValid = false;
+        return this;
+    }
+
     public int getSequenceNo() {
         return this.sequenceNo;
     }
@@ -40,7 +158,7 @@ public class TCPmessage{
         return this.acknowledgment;
     }
 
-    public double getTimestamp() {
+    public long getTimestamp() {
         return this.timestamp;
     }
 
@@ -51,10 +169,39 @@ public class TCPmessage{
     public int getChecksum() {
         return this.checksum;
     }
+    // only the first getLength() bytes are the data, the array can be longer when recycled, null for a virtual payload.
+    // a mapped payload is copied out, getPayloadBuffer doesn't copy
     public byte[] getPayload() {
+        if(this.payload == null && this.mappedPayload != null) {
+            byte[] data = new byte[this.length];
+            this.mappedPayload.get(this.payloadOffset, data);
+            return data;
+        }
         return this.payload;
     }
 
+    /**
+     * @return the data as a buffer of its own from position 0 to the length, without copying it,
+     * null for a virtual payload
+     */
+    public ByteBuffer getPayloadBuffer() {
+        if(this.mappedPayload != null)
+            return this.mappedPayload.slice(this.payloadOffset, this.length);
+        if(this.payload == null)
+            return null;
+        return ByteBuffer.wrap(this.payload, 0, this.length);
+    }
+
+    /**
+     * writes the data at position in writer's file, a mapped payload is read where it is
+     */
+    public void writePayload(SegmentWriter writer, long position) throws IOException {
+        if(this.mappedPayload != null)
+            writer.write(position, this.mappedPayload, this.payloadOffset, this.length);
+        else if(this.payload != null)
+            writer.write(position, ByteBuffer.wrap(this.payload), 0, this.length);
+    }
+
     public boolean isSYN() {
         return this.Sflag;
     }
@@ -66,7 +213,7 @@ public class TCPmessage{
     }
 
     public void setFlag(char flag) {
-
+        this.checksumValid = false;
         if(flag == 'S' && !this.Sflag) {
             this.flags |= 4;
             this.Sflag = true;
@@ -81,6 +228,7 @@ public class TCPmessage{
         }
     }
     public void removeFlag(char flag) {
+        this.checksumValid = false;
         if(flag == 'S' && this.Sflag) {
             this.flags &= ~4;
             this.Sflag = false;
@@ -95,15 +243,36 @@ public class TCPmessage{
         }
     }
 
+    // a retransmission only changes ack and timestamp, the checksum is updated instead of summed again
     public void setAcknowledgment(int ack) {
+        if(this.checksumValid)
+            this.checksum = (short) InternetChecksum.updateInt(this.checksum & 0xFFFF, this.acknowledgment, ack);
         this.acknowledgment = ack;
     }
-    public void setTimestamp(double time) {
+    public void setTimestamp(long time) {
+        if(this.checksumValid)
+            this.checksum = (short) InternetChecksum.updateLong(this.checksum & 0xFFFF, this.timestamp, time);
         this.timestamp = time;
     }
     public void setPayload(byte[] data) {
         this.payload = data;
+        this.mappedPayload = null;
         this.length = data.length;
+        this.payloadSum = -1;
+        this.checksumValid = false;
+    }
+
+    /**
+     * @param data a mapped file holding the data at offset, it is shared and never written,
+     * so segments of one file need no view of their own
+     */
+    public void setPayload(ByteBuffer data, int offset, int length) {
+        this.payload = null;
+        this.mappedPayload = data;
+        this.payloadOffset = offset;
+        this.length = length;
+        this.payloadSum = -1;
+        this.checksumValid = false;
     }
 
     public boolean hasData() {
@@ -111,76 +280,156 @@ public class TCPmessage{
     }
     public void resetChecksum() {
         this.checksum = 0;
+        this.checksumValid = false;
+    }
+
+    /**
+     * computes the checksum if a field changed since it was last computed
+     */
+    public void updateChecksum() {
+        if(this.checksumValid)
+            return;
+        this.checksum = (short) InternetChecksum.checksum(computeSum());
+        this.checksumValid = true;
+    }
+
+    /**
+     * @return true if the checksum matches the fields, for a received segment
+     */
+    public boolean verifyChecksum() {
+        return InternetChecksum.checksum(computeSum()) == (this.checksum & 0xFFFF);
+    }
+
+    // sum over the serialized segment with the checksum field as 0, a virtual payload counts as zeros
+    private long computeSum() {
+        if(this.payloadSum < 0) {
+            if(this.mappedPayload != null)
+                this.payloadSum = InternetChecksum.sum(this.mappedPayload, this.payloadOffset, this.length);
+            else
+                this.payloadSum = this.length > 0 && this.payload != null ? InternetChecksum.sum(this.payload, 0, this.length) : 0;
+        }
+        return InternetChecksum.sumInt(this.sequenceNo) + InternetChecksum.sumInt(this.acknowledgment)
+                + InternetChecksum.sumLong(this.timestamp)
+                + InternetChecksum.sumInt((this.length << 3) | this.flags) + (long) this.payloadSum;
     }
 
     public byte[] serialize() {
-        this.checksum = 0;
+        byte[] data = new byte[HEADER_LENGTH + this.length];
+        serialize(data);
+        return data;
+    }
 
-        int totalLength = HEADER_LENGTH + this.length;
+    /**
+     * serialize into a buffer the caller owns, so sending doesn't need a new array per segment
+     * @param data at least HEADER_LENGTH + getLength() bytes
+     * @return the number of bytes written
+     */
+    public int serialize(byte[] data) {
+        return serialize(ByteBuffer.wrap(data));
+    }
 
-        byte[] data = new byte[totalLength];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+    /**
+     * serialize into a packet's buffer from index 0, with absolute puts only
+     * @param data at least HEADER_LENGTH + getLength() bytes
+     * @return the number of bytes written
+     */
+    public int serialize(ByteBuffer data) {
+        writeHeader(data);
+        if (this.mappedPayload != null) {
+            data.put(HEADER_LENGTH, this.mappedPayload, this.payloadOffset, this.length);
+        }
+        else if (this.payload != null && this.length != 0) {
+            data.put(HEADER_LENGTH, this.payload, 0, this.length);
+        }
 
-        bb.putInt(this.sequenceNo);
-        bb.putInt(this.acknowledgment);
-        bb.putDouble(this.timestamp);
+        return HEADER_LENGTH + this.length;
+    }
+
+    /**
+     * writes the header again over an earlier serialization of this segment in packet, so a
+     * retransmission with a new ack and timestamp goes out in the same slot without copying the data
+     * @return false if packet doesn't hold this segment, it is left as it was then
+     */
+    public boolean rewriteHeader(SimplePacket packet) {
+        ByteBuffer data = packet.getBuffer();
+        if(packet.getLength() != SimplePacket.HEADER_LENGTH + HEADER_LENGTH + this.length || data.capacity() < HEADER_LENGTH
+                || data.getInt(0) != this.sequenceNo || data.getInt(16) != ((this.length << 3) | this.flags))
+            return false;
+        writeHeader(data);
+        return true;
+    }
+
+    private void writeHeader(ByteBuffer data) {
+        updateChecksum();
+
+        data.putInt(0, this.sequenceNo);
+        data.putInt(4, this.acknowledgment);
+        data.putLong(8, this.timestamp);
 
         int lengthWithFlags = (this.length << 3) | this.flags;
 
-        bb.putInt(lengthWithFlags);
-        bb.putShort((short)0);
-        bb.putShort(this.checksum);
-        if (this.payload != null && this.length != 0) {
-            bb.put(this.payload);
-        }
+        data.putInt(16, lengthWithFlags);
+        data.putShort(20, (short)0);
+        data.putShort(22, this.checksum);
+    }
+
+    // the data is copied into the message's own array
+    public TCPmessage deserialize(byte[] data) {
 
-        // compute checksum if needed
-        if (this.checksum == 0) {
-            bb.rewind();
-            int value = 0;
-
-            while(bb.remaining() >= 2) {
-                int current = Short.toUnsignedInt(bb.getShort());
-                value += current;
-                value = (value & 0xFFFF) + (value >>> 16);
-            }
-            if(bb.remaining() == 1) {
-                int last = (bb.get() & 0xFF) << 8;
-                value += last;
-                value = (value & 0xFFFF) + (value >>> 16);
-            }
-            value = (value & 0xFFFF) + (value >>> 16);
-
-            this.checksum = (short) (~value & 0xFFFF);
-            bb.putShort(22, this.checksum);
+        readHeader(ByteBuffer.wrap(data));
+        if(this.length > 0) {
+            // a recycled message keeps its array if the data fits
+            if(this.payload == null || this.payload.length < this.length)
+                this.payload = new byte[this.length];
+            System.arraycopy(data, HEADER_LENGTH, this.payload, 0, this.length);
         }
+        this.mappedPayload = null;
+        return this;
+    }
 
-        return data;
+    /**
+     * reads the segment in packet's buffer without copying the data, the message reads the packet's
+     * slot in place and holds the packet until it is released with Scheduler.releaseMessage
+     */
+    public TCPmessage deserialize(SimplePacket packet) {
+
+        ByteBuffer data = packet.getBuffer();
+        readHeader(data);
+        this.mappedPayload = null;
+        if(this.length > 0) {
+            this.mappedPayload = data;
+            this.payloadOffset = HEADER_LENGTH;
+            this.frame = packet;
+            packet.retain();
+        }
+        return this;
     }
 
-    public TCPmessage deserialize(byte[] data) {
+    /**
+     * @return the packet this message views, which the caller now holds instead, null if there is none
+     */
+    SimplePacket detachFrame() {
+        SimplePacket packet = this.frame;
+        this.frame = null;
+        this.mappedPayload = null;
+        return packet;
+    }
 
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        this.sequenceNo = bb.getInt();
-        this.acknowledgment = bb.getInt();
-        this.timestamp = bb.getDouble();
-        int lengthWithFlags = bb.getInt();
+    private void readHeader(ByteBuffer data) {
+        this.sequenceNo = data.getInt(0);
+        this.acknowledgment = data.getInt(4);
+        this.timestamp = data.getLong(8);
+        int lengthWithFlags = data.getInt(16);
         this.length = lengthWithFlags >> 3;
         this.flags = lengthWithFlags & 7;
-        bb.getShort();
-        this.checksum = bb.getShort();
-        byte[] payloadData = new byte[this.length];
-        if(this.length > 0) {
-            bb.get(payloadData);
-            this.payload = payloadData;
-        }
-            
+        this.checksum = data.getShort(22);
+        this.payloadSum = -1;
+        this.checksumValid = false;
+
         // check flags
         this.Sflag = ((this.flags & 4) != 0);
         this.Fflag = ((this.flags & 2) != 0);
         this.Aflag = ((this.flags & 1) != 0);
-
-        return this;
     }
 
-}
+}
\ No newline at end of file
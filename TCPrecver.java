@@ -1,18 +1,18 @@
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 
 /**
  * Class for receiver
  */
-public class TCPrecver{
-    private String filename;            // output file
+public class TCPrecver implements Checkpointable {
+    private String filename;            // output file, null to keep none and only count what is delivered
     private int mtu;
     private int sws;                    // buffer size
-    private HashMap<Integer, TCPmessage> buffer;
+    private ReorderWindow buffer;       // out of order segments
     private int sequenceNo;
 
     private short sourceID;             // receiver ID
@@ -20,13 +20,28 @@ public class TCPrecver{
     private Node node;                  // receiver node
 
     private int expectedSeq;            // the next expected sequence from sender
+    private int dataStart;              // sequence number of the first byte of the file
 
-    private FileOutputStream output;
+    private SegmentWriter output;
+    private ExecutorService outputExecutor;     // writes the output in the background, null to write in line
     private boolean verbose;
     private Scheduler scheduler;
 
     private State state;
 
+
+    private TCPmessage.Encoding encoding = TCPmessage.Encoding.BYTES;
+    private double corruption = 0.0;    // share of arriving segments with a flipped bit
+    private long corruptionSeed = 0;
+    private Random random = null;
+    private TCPmessage.Payload payloadMode = TCPmessage.Payload.REAL;
+    private PayloadDigest digest = new PayloadDigest();     // of the segments delivered in order, virtual payloads only
+    private Link[] route = null;                    // path to the sender with source routing
+
+    // optimistic runs hold file writes back until they can't be rolled back, see commit
+    private ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    private long writesQueued = 0;
+
     // final stats
     private int invalidChecksumCount = 0;
     private int droppedPacketCount = 0;
@@ -51,21 +66,163 @@ public class TCPrecver{
         this.mtu = mtu;
         this.sws = sws;
         this.scheduler = sched;
+        this.scheduler.fitPackets(this.mtu);
         this.state = State.CLOSED;
         
-        this.buffer = new HashMap<>();
+        this.buffer = new ReorderWindow(sws, mss(), sched::releaseMessage);
         this.sequenceNo = 0;
         this.expectedSeq = 0;
         this.verbose = v;
     }
 
+    /**
+     * copy of another receiver for a forked run writing to filename, its node and scheduler are
+     * looked up in context. The output isn't open until resumeOutput.
+     */
+    TCPrecver(TCPrecver other, ForkContext context, String filename) {
+        this.sourceID = other.sourceID;
+        this.destinationID = other.destinationID;
+        this.filename = filename;
+        this.node = context.node(other.node);
+        this.mtu = other.mtu;
+        this.sws = other.sws;
+        this.scheduler = context.getScheduler();
+        this.state = other.state;
+
+        this.buffer = new ReorderWindow(other.buffer, true, this.scheduler::releaseMessage);
+        this.sequenceNo = other.sequenceNo;
+        this.expectedSeq = other.expectedSeq;
+        this.dataStart = other.dataStart;
+        this.verbose = other.verbose;
+
+        this.invalidChecksumCount = other.invalidChecksumCount;
+        this.droppedPacketCount = other.droppedPacketCount;
+        this.receivedPacketCount = other.receivedPacketCount;
+        this.receivedDataSize = other.receivedDataSize;
+        this.sentPacketCount = other.sentPacketCount;
+        this.sentDataSize = other.sentDataSize;
+
+        // a fork's corruption starts over from the seed
+        this.encoding = other.encoding;
+        setCorruption(other.corruption, other.corruptionSeed);
+        this.payloadMode = other.payloadMode;
+        this.digest = new PayloadDigest(other.digest);
+        this.route = context.route(other.route);
+    }
+
+    public void setEncoding(TCPmessage.Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * models corruption on the wire, a segment arrives with a flipped bit with probability rate
+     * and the checksum check has to catch it. With the object encoding checksums are only
+     * computed when this is on, the sender has to be told with setEncoding.
+     */
+    public void setCorruption(double rate, long seed) {
+        this.corruption = rate;
+        this.corruptionSeed = seed;
+        this.random = rate > 0 ? new Random(seed) : null;
+    }
+
+    /**
+     * with virtual payloads there is no output file, delivered segments only go into the digest
+     */
+    public void setPayloadMode(TCPmessage.Payload payloadMode) {
+        this.payloadMode = payloadMode;
+    }
+
+    public TCPmessage.Payload getPayloadMode() {
+        return this.payloadMode;
+    }
+
+    /**
+     * @param sourceRouting resolve the path to the other end once and send every packet along it,
+     * otherwise every node looks up the next hop
+     */
+    public void setSourceRouting(boolean sourceRouting) {
+        this.route = sourceRouting ? node.routeTo(destinationID) : null;
+    }
+
+    /**
+     * @return the digest of every segment delivered in order, empty unless payloads are virtual or
+     * there is no output file
+     */
+    public PayloadDigest getDigest() {
+        return this.digest;
+    }
+
+    /**
+     * opens the output of a forked receiver, with what the original had written so far already in it
+     * @param written the original's output up to the fork
+     */
+    public void resumeOutput(byte[] written) {
+        if(payloadMode == TCPmessage.Payload.VIRTUAL)
+            return;
+        if(filename == null) {
+            // nothing to write it to, it only counts as delivered
+            digest.add(dataStart, written.length);
+            return;
+        }
+        try{
+            output = new SegmentWriter(filename, outputExecutor);
+            output.write(0, ByteBuffer.wrap(written));
+        }
+        catch (IOException e) {
+            System.out.println("error opening fileoutputstream");
+            return;
+        }
+        // the original was done and had closed its file
+        if(state == State.CLOSED)
+            closeOutput();
+    }
+
+    /**
+     * @param executor writes the output file in the background, it can be shared by many receivers.
+     * null writes it on the receiver's thread
+     */
+    public void setOutputExecutor(ExecutorService executor) {
+        this.outputExecutor = executor;
+        if(output != null)
+            output.setExecutor(executor);
+    }
+
+    /**
+     * sets the receive window in segments
+     */
+    public void setWindow(int sws) {
+        this.sws = sws;
+        // the segments held go over to a window of the new size, the ones that don't fit go back to the pool
+        ReorderWindow resized = new ReorderWindow(sws, mss(), scheduler::releaseMessage);
+        buffer.forEach(segment -> {
+            if(!resized.offer(segment, expectedSeq))
+                scheduler.releaseMessage(segment);
+        });
+        buffer = resized;
+    }
+
+    // same as the sender's, segments are this far apart in the sequence space
+    private int mss() {
+        return mtu - TCPmessage.HEADER_LENGTH - SimplePacket.HEADER_LENGTH;
+    }
+
+    public short getID() {
+        return this.sourceID;
+    }
+
+    public Node getNode() {
+        return this.node;
+    }
+
     public void listen() {
         state = State.LISTEN;
+        if(!hasOutput())
+            return;
 
         try{
-            output = new FileOutputStream(filename, false);
+            output = new SegmentWriter(filename, outputExecutor);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             System.out.println("error opening fileoutputstream");
             return;
         }
@@ -73,9 +230,17 @@ public class TCPrecver{
 
     public void receive(SimplePacket packet) {
 
-        // retrieve payload
-        TCPmessage message = new TCPmessage(0, 0, 0, 0);
-        message = message.deserialize(packet.getPayload());
+        // retrieve payload, the message goes back to the pool at the end unless the reorder buffer keeps it.
+        // with the object encoding it is copied since the buffer may keep it longer than the packet lives,
+        // in bytes it views the packet's slot and holds the packet as long as it is kept
+        TCPmessage message = scheduler.acquireMessage();
+        if(encoding == TCPmessage.Encoding.OBJECT)
+            message.copyFrom(packet.getMessage());
+        else
+            message = message.deserialize(packet);
+        if(random != null && random.nextDouble() < corruption)
+            message.corrupt(random);
+        boolean kept = false;
         receivedPacketCount++;
         receivedDataSize += message.getLength();
 
@@ -83,26 +248,26 @@ public class TCPrecver{
 
         switch(state) {
 
-            case State.LISTEN:
+            case LISTEN:
                 if(message.isSYN()) {
                     initConnectionResponse(message);
                     state = State.SYN_RCVD;
                 }
                 break;
 
-            case State.SYN_RCVD:
+            case SYN_RCVD:
                 if(message.isACK() && message.getSequenceNo() == expectedSeq)
                     state = State.ESTABLISHED;
                 break;
             
-            case State.ESTABLISHED:
-                receiveData(message);
+            case ESTABLISHED:
+                kept = receiveData(message);
                 break;
 
-            case State.CLOSED:
+            case CLOSED:
                 break;
             
-            case State.LAST_ACK:
+            case LAST_ACK:
                 waitForAck(message);
                 break;
             default:
@@ -110,90 +275,92 @@ public class TCPrecver{
 
         }
 
+        if(!kept)
+            scheduler.releaseMessage(message);
     }
 
-    private void receiveData(TCPmessage message) {
-        boolean valid = checksumCheck(message);
+    /**
+     * @return true if the message was put in the buffer, the buffer then owns it
+     */
+    private boolean receiveData(TCPmessage message) {
+        // without corruption an object's checksum was never computed and there is nothing to check
+        boolean valid = (encoding == TCPmessage.Encoding.OBJECT && random == null) || checksumCheck(message);
         if(!valid) {
             System.out.println("checksum wrong");
             invalidChecksumCount++;
-            return;
+            return false;
         }
 
         int receivedSeqNo = message.getSequenceNo();
         // if the received packet has a seq number smaller than what the receiver is expecting
         // drop it and send ack again
         if(receivedSeqNo < expectedSeq) {
-            TCPmessage ack = new TCPmessage(sequenceNo, expectedSeq, 0, scheduler.getCurrentTime());
+            TCPmessage ack = scheduler.acquireMessage().reset(sequenceNo, expectedSeq, 0, scheduler.getCurrentTime());
             sendAck(ack);
+            scheduler.releaseMessage(ack);
             droppedPacketCount ++;
         }
 
         // if received seq number is bigger, put in buffer
         // but if buffer is full, drop it
         else if(receivedSeqNo > expectedSeq) {
-            if(buffer.size() < sws && !buffer.containsKey(receivedSeqNo))
-                buffer.put(receivedSeqNo, message);
+            if(buffer.offer(message, expectedSeq))
+                return true;
             else
                 droppedPacketCount ++;
         // if packet is exactly what the receiver wants, just write to file
-        } else if (message.getPayload() != null){
+        } else if (message.getLength() > 0){
 
-            try{
-                output.write(message.getPayload());
-                output.flush();
-            }
-            catch (IOException e) {
-                System.out.println("file write error");
-                try {
-                    output.close();
-                }
-                catch (IOException e2) {
-                    System.out.println("file not properly closed");
-                }
-                return;
-            }
+            if(!write(message))
+                return false;
             
             expectedSeq += message.getLength();
             // if buffer has segments immediately afterwards, write to file also
-            while(buffer.containsKey(expectedSeq)) {
-                TCPmessage toBeWritten = buffer.remove(expectedSeq);
+            for(int ready = buffer.runFrom(expectedSeq); ready > 0; ready--) {
+                TCPmessage toBeWritten = buffer.take(expectedSeq);
+                if(toBeWritten == null)
+                    break;
                 if(toBeWritten.isFIN()) {
-                    terminateConnectionAck(message.getSequenceNo());
-                    return;
+                    scheduler.releaseMessage(toBeWritten);
+                    terminateConnectionAck(expectedSeq);
+                    return false;
                 }
                     
-                try {
-                    output.write(toBeWritten.getPayload());
-                    output.flush();
-                }
-                catch (IOException e) {
-                    System.out.println("file write error");
-                    try {
-                        output.close();
-                    }
-                    catch (IOException e2) {
-                        System.out.println("file not properly closed");
-                    }
-                    return;
+                if(!write(toBeWritten)) {
+                    scheduler.releaseMessage(toBeWritten);
+                    return false;
                 }
                 
                 expectedSeq += toBeWritten.getLength();
+                scheduler.releaseMessage(toBeWritten);
             }
             // send ack for the segment that is written
-            TCPmessage ack = new TCPmessage(sequenceNo, expectedSeq, 0, scheduler.getCurrentTime());
+            TCPmessage ack = scheduler.acquireMessage().reset(sequenceNo, expectedSeq, 0, scheduler.getCurrentTime());
             sendAck(ack);
+            scheduler.releaseMessage(ack);
+        // the sender's FIN right after the last byte closes the connection
+        } else if(message.isFIN()) {
+            terminateConnectionAck(receivedSeqNo);
         }
+        return false;
     }
 
     private void sendPacket(TCPmessage message) {
 
         message.setAcknowledgment(expectedSeq); // expected seqNo from receiver will be different, build packet only when sending
         message.setTimestamp(scheduler.getCurrentTime());
-        byte[] stream = message.serialize();
-        SimplePacket TCPpacket = new SimplePacket(sourceID, destinationID, stream);
+        SimplePacket TCPpacket;
+        if(encoding == TCPmessage.Encoding.OBJECT) {
+            TCPpacket = scheduler.acquirePacket(sourceID, destinationID, message);
+        }
+        else {
+            TCPpacket = scheduler.acquirePacket(sourceID, destinationID, TCPmessage.HEADER_LENGTH + message.getLength());
+            message.serialize(TCPpacket.getBuffer());
+        }
+        TCPpacket.setRoute(route);
 
         node.send(TCPpacket);
+        scheduler.releasePacket(TCPpacket);
         sentDataSize += message.getLength();
         sentPacketCount++;  
         sequenceNo += Math.max(message.getLength(), 1);
@@ -208,6 +375,7 @@ public class TCPrecver{
     public void initConnectionResponse(TCPmessage received) {
 
         expectedSeq = received.getSequenceNo() + 1;
+        dataStart = expectedSeq;
 
         TCPmessage initR = new TCPmessage(sequenceNo, expectedSeq, 0, scheduler.getCurrentTime());
         initR.setFlag('S');
@@ -241,7 +409,7 @@ public class TCPrecver{
         StringBuilder output = new StringBuilder();
         output.append(sndRcv);
         output.append(" ");
-        output.append(scheduler.getCurrentTime());
+        output.append(SimTime.toMillis(scheduler.getCurrentTime()));
         output.append(" ");
         if(packet.isSYN())
             output.append("S");
@@ -289,6 +457,7 @@ public class TCPrecver{
 
         TCPmessage rcvFin = new TCPmessage(sequenceNo, expectedSeq, 0, scheduler.getCurrentTime());
         rcvFin.setFlag('F');
+        rcvFin.setFlag('A');
         sendPacket(rcvFin);
         state = State.LAST_ACK;
         sequenceNo += Math.max(finAck.getLength(), 1);
@@ -302,48 +471,168 @@ public class TCPrecver{
         if(message.isACK()) {
             receivedPacketCount ++;
             state = State.CLOSED;
-            try {
-                output.close();
-            }
-            catch (IOException e) {
-                System.out.println("file not properly closed");
-            }
+            if(scheduler.isOptimistic())
+                queueWrite(0, null);
+            else
+                closeOutput();
         }
             
 
     }
 
     /**
-     * verify checksum
-     * @param segment
-     * @return
+     * writes an in order segment to the output file, or queues it in an optimistic run.
+     * A virtual payload, or any without an output file, only goes into the digest, which is saved
+     * and restored with the rest of the state
+     * @return false if the file couldn't be written
      */
-    public boolean checksumCheck(TCPmessage segment) {
+    private boolean write(TCPmessage segment) {
+        if(!hasOutput()) {
+            digest.add(segment.getSequenceNo(), segment.getLength());
+            return true;
+        }
+        long position = (long) segment.getSequenceNo() - dataStart;
+        if(scheduler.isOptimistic()) {
+            queueWrite(position, segment);
+            return true;
+        }
+        return writeOut(position, segment);
+    }
+
+    private boolean hasOutput() {
+        return payloadMode != TCPmessage.Payload.VIRTUAL && filename != null;
+    }
 
-        int oldChecksum = segment.getChecksum();
-        byte[] stream = segment.serialize();
+    // the writer copies the data, so the segment can be recycled as soon as this returns
+    private boolean writeOut(long position, TCPmessage segment) {
+        try {
+            if(output == null)
+                throw new IOException("output closed");
+            segment.writePayload(output, position);
+        }
+        catch (IOException e) {
+            System.out.println("file write error");
+            closeOutput();
+            return false;
+        }
+        return true;
+    }
+
+    void closeOutput() {
+        if(output == null)
+            return;
+        try {
+            output.close();
+        }
+        catch (IOException e) {
+            System.out.println("file not properly closed");
+        }
+        output = null;
+    }
 
-        ByteBuffer bb = ByteBuffer.wrap(stream);
+    /**
+     * makes sure everything written so far is in the file, which stays open
+     */
+    void syncOutput() {
+        if(output == null)
+            return;
+        try {
+            output.sync();
+        }
+        catch (IOException e) {
+            System.out.println("file write error");
+        }
+    }
 
-        int value = 0;
-        bb.putShort(22, (short)0);
-        bb.rewind();
-        while(bb.remaining() >= 2) {
-            int current = Short.toUnsignedInt(bb.getShort());
-            value += current;
-            value = (value & 0xFFFF) + (value >>> 16);
+    /**
+     * a write held back until GVT passes its time, segment null closes the file
+     */
+    private static class PendingWrite {
+        long time;
+        long position;
+        TCPmessage segment;
+
+        PendingWrite(long time, long position, TCPmessage segment) {
+            this.time = time;
+            this.position = position;
+            this.segment = segment;
         }
-        if(bb.remaining() == 1) {
-            int last = (bb.get() & 0xFF) << 8;
-            value += last;
-            value = (value & 0xFFFF) + (value >>> 16);
+    }
+
+    private void queueWrite(long position, TCPmessage segment) {
+        // messages aren't recycled in optimistic runs, so the segment stays as it is
+        pendingWrites.addLast(new PendingWrite(scheduler.getCurrentTime(), position, segment));
+        writesQueued++;
+    }
+
+    public void commit(long gvt) {
+        while(!pendingWrites.isEmpty() && pendingWrites.peekFirst().time < gvt) {
+            PendingWrite w = pendingWrites.pollFirst();
+            if(w.segment == null)
+                closeOutput();
+            else if(!writeOut(w.position, w.segment))
+                pendingWrites.clear();
         }
-        value = (value & 0xFFFF) + (value >>> 16);
+    }
 
-        int newChecksum = (short) (~value & 0xFFFF);
+    /**
+     * receiver state for optimistic runs
+     */
+    private static class SavedState {
+        ReorderWindow buffer;
+        int sequenceNo, expectedSeq, dataStart;
+        State state;
+        int invalidChecksumCount, droppedPacketCount, receivedPacketCount, receivedDataSize, sentPacketCount, sentDataSize;
+        long writesQueued;
+        PayloadDigest digest;
+    }
 
-        return newChecksum == oldChecksum;
+    public Object saveState() {
+        SavedState s = new SavedState();
+        s.buffer = new ReorderWindow(buffer, false, scheduler::releaseMessage);
+        s.sequenceNo = sequenceNo;
+        s.expectedSeq = expectedSeq;
+        s.dataStart = dataStart;
+        s.state = state;
+        s.invalidChecksumCount = invalidChecksumCount;
+        s.droppedPacketCount = droppedPacketCount;
+        s.receivedPacketCount = receivedPacketCount;
+        s.receivedDataSize = receivedDataSize;
+        s.sentPacketCount = sentPacketCount;
+        s.sentDataSize = sentDataSize;
+        s.writesQueued = writesQueued;
+        s.digest = new PayloadDigest(digest);
+        return s;
+    }
+
+    public void restoreState(Object state) {
+        SavedState s = (SavedState) state;
+        buffer = new ReorderWindow(s.buffer, false, scheduler::releaseMessage);
+        sequenceNo = s.sequenceNo;
+        expectedSeq = s.expectedSeq;
+        dataStart = s.dataStart;
+        this.state = s.state;
+        invalidChecksumCount = s.invalidChecksumCount;
+        droppedPacketCount = s.droppedPacketCount;
+        receivedPacketCount = s.receivedPacketCount;
+        receivedDataSize = s.receivedDataSize;
+        sentPacketCount = s.sentPacketCount;
+        sentDataSize = s.sentDataSize;
+        digest = new PayloadDigest(s.digest);
+        // writes queued by rolled back events are still at the end, commit never gets past GVT
+        while(writesQueued > s.writesQueued) {
+            pendingWrites.pollLast();
+            writesQueued--;
+        }
+    }
 
+    /**
+     * verify checksum
+     * @param segment
+     * @return
+     */
+    public boolean checksumCheck(TCPmessage segment) {
+        return segment.verifyChecksum();
     }
 
     public int[] returnStats() {
@@ -1,14 +1,14 @@
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * TCP sender class
  */
-public class TCPsender {
+public class TCPsender implements Checkpointable {
 
     private short sourceID;             // sender ID
     private short destinationID;        // receiver ID
@@ -20,9 +20,13 @@ public class TCPsender {
     private int expRcvNo;               // the expected sequence to get from receiver
     private Scheduler scheduler;
 
-    private ArrayList<TCPmessage> buffer;
-    private int lastAck;    // the index of expected seq from receiver (need to multiply by mss to get sequence number)
-    private int lastSent;   // the index of the last sent seq (need to multiply by mss to get sequence number)
+    private SegmentRing buffer;             // segments sent and not yet acknowledged, by index in the file
+    private MappedByteBuffer file;          // the input file, null with virtual payloads
+    private long fileSize;
+    private int segmentCount;
+    private int dataStart;                  // sequence number of the first byte of the file
+    private int lastAck;    // the index of the last segment acknowledged, -1 before the first
+    private int lastSent;   // the index of the last segment sent
     private int dupAcks;
 
     private State state;
@@ -31,12 +35,13 @@ public class TCPsender {
 
     private Node node = null;
     
-    // for timeout
+    // for timeout, in ms
     private double timeout;
     private double ertt;        // estimated rtt
     private double edev = 0.0;      // estimated deviation
     private double timeoutCoA = 0.875;  // coefficient a
     private double timeoutCoB = 0.75;   // coefficient b
+    private TimerRing timers;   // retransmission timer of each segment, by timerIndex
 
     // for final stats
     private int sentDataSize = 0;
@@ -51,6 +56,12 @@ public class TCPsender {
     private boolean verbose;
     private TCPStat stat;
 
+    private TCPmessage.Encoding encoding = TCPmessage.Encoding.BYTES;
+    private boolean checksums = true;               // only looked at with the object encoding
+    private TCPmessage.Payload payloadMode = TCPmessage.Payload.REAL;
+    private PayloadDigest digest = new PayloadDigest();     // of the segments cut from the file, virtual payloads only
+    private Link[] route = null;                    // path to the receiver with source routing
+
     public static enum RenoState {
         SLOW_START,
         CONGESTION_AVOIDANCE,
@@ -75,21 +86,108 @@ public class TCPsender {
         this.mss = this.mtu - TCPmessage.HEADER_LENGTH - SimplePacket.HEADER_LENGTH;
         this.cwnd = 0;
         this.sequenceNo = 0;
-        this.buffer = new ArrayList<>();
+        this.buffer = new SegmentRing(sched::releaseMessage);
         this.lastAck = -1;
         this.lastSent = -1;
         this.expRcvNo = 0;
         this.dupAcks = 0;
         this.scheduler = sched;
+        this.scheduler.fitPackets(this.mtu);
         this.state = State.CLOSED;
         this.reno = RenoState.SLOW_START;
         this.ssthresh = 64; // random large number that is 2^n
 
         this.timeout = 5000.0; // 5 seconds
+        this.timers = new TimerRing();
         this.verbose = v;
         this.stat = new TCPStat("sender");
     }
 
+    /**
+     * copy of another sender for a forked run, its node, scheduler and timers are looked up in context
+     */
+    TCPsender(TCPsender other, ForkContext context) {
+        this.sourceID = other.sourceID;
+        this.destinationID = other.destinationID;
+        this.node = context.node(other.node);
+        this.filename = other.filename;
+        this.mtu = other.mtu;
+        this.mss = other.mss;
+        this.cwnd = other.cwnd;
+        this.sequenceNo = other.sequenceNo;
+        this.buffer = new SegmentRing(other.buffer, context.getScheduler()::releaseMessage);
+        // the mapping is read-only, so forks share it
+        this.file = other.file;
+        this.fileSize = other.fileSize;
+        this.segmentCount = other.segmentCount;
+        this.dataStart = other.dataStart;
+        this.lastAck = other.lastAck;
+        this.lastSent = other.lastSent;
+        this.expRcvNo = other.expRcvNo;
+        this.dupAcks = other.dupAcks;
+        this.scheduler = context.getScheduler();
+        this.state = other.state;
+        this.reno = other.reno;
+        this.ssthresh = other.ssthresh;
+
+        this.timeout = other.timeout;
+        this.ertt = other.ertt;
+        this.edev = other.edev;
+        // handles of timers that already fired or were cancelled are stale and have no copy
+        this.timers = new TimerRing(other.timers, context);
+        this.sentDataSize = other.sentDataSize;
+        this.sentPacketCount = other.sentPacketCount;
+        this.receivedDataSize = other.receivedDataSize;
+        this.receivedPacketCount = other.receivedPacketCount;
+        this.retransmissionCount = other.retransmissionCount;
+        this.dupAckCount = other.dupAckCount;
+        this.verbose = other.verbose;
+        this.stat = new TCPStat(other.stat);
+        this.encoding = other.encoding;
+        this.checksums = other.checksums;
+        this.payloadMode = other.payloadMode;
+        this.digest = new PayloadDigest(other.digest);
+        this.route = context.route(other.route);
+    }
+
+    /**
+     * @param checksums with the object encoding, whether segments get a checksum (only needed when
+     * the receiver models corruption), segments in bytes always have one
+     */
+    public void setEncoding(TCPmessage.Encoding encoding, boolean checksums) {
+        this.encoding = encoding;
+        this.checksums = checksums;
+    }
+
+    /**
+     * with virtual payloads only the file's length is read, see TCPmessage.Payload
+     */
+    public void setPayloadMode(TCPmessage.Payload payloadMode) {
+        this.payloadMode = payloadMode;
+    }
+
+    /**
+     * @param sourceRouting resolve the path to the other end once and send every packet along it,
+     * otherwise every node looks up the next hop
+     */
+    public void setSourceRouting(boolean sourceRouting) {
+        this.route = sourceRouting ? node.routeTo(destinationID) : null;
+    }
+
+    /**
+     * @param sequenceNo the sequence number of the SYN, 0 unless set before the connection is opened
+     */
+    public void setInitialSequenceNo(int sequenceNo) {
+        this.sequenceNo = sequenceNo;
+    }
+
+    /**
+     * @return the digest of every segment of the file, empty unless payloads are virtual
+     */
+    public PayloadDigest getDigest() {
+        return this.digest;
+    }
+
     /**
      * Sends the first packet to initialize threeway handshake
      * @return succeed or not
@@ -114,7 +212,8 @@ public class TCPsender {
 
     public void initWaitForAck(TCPmessage message) {
 
-        if(!message.isSYN() || !message.isACK() || message.getAcknowledgment() != sequenceNo + 1) {
+        // the SYN took one sequence number, the receiver acks the one after it
+        if(!message.isSYN() || !message.isACK() || message.getAcknowledgment() != sequenceNo) {
             System.out.println("sender: init received wrong info");
             return;
         }
@@ -122,8 +221,11 @@ public class TCPsender {
         stat.addReceivedData(1, message.getLength());
         stat.printPackets(message, "rcv", scheduler.getCurrentTime(), verbose);
 
+        // SYN is acknowledged, stop its timer
+        scheduler.cancelTimer(timers.remove(timerIndex(sequenceNo - 1, false)));
+
         // calculate first value for timeout
-        ertt = scheduler.getCurrentTime() - message.getTimestamp();
+        ertt = SimTime.toMillis(scheduler.getCurrentTime() - message.getTimestamp());
         timeout = ertt * 2.0;
 
         int inSeqNO = message.getSequenceNo();
@@ -135,15 +237,14 @@ public class TCPsender {
         init2.setFlag('A');
 
         sendPacket(init2);
-        
-        node.send(initPacket2);
 
         printStat(init2, "snd");
 
         sentDataSize += init2.getLength();
         sentPacketCount ++;
 
-        dataIntoBuffer();
+        state = State.ESTABLISHED;
+        openSource();
 
         // start sending data: sends until cwnd is reached, then only send when space is free
         sendData();
@@ -155,33 +256,45 @@ public class TCPsender {
             recalculateTimeout(message.getTimestamp());
             int recvdAckNo = message.getAcknowledgment();
             int recvdSeq = message.getSequenceNo();
+            // the ack is the byte after the last segment it covers, turned into that segment's index once,
+            // rounding up as the last segment can be short
+            int acked = segmentIndex(recvdAckNo + mss - 1) - 1;
 
             // 1. check if ack is before or after lastAck
             // 2. if after, move lastAck forward,
             // call cwnd and send data
 
             // check if the receiver expected the correct ack, which is ones after lastAck
-            if(recvdAckNo/mss >= lastAck + 1) {
+            if(acked > lastAck) {
                 reno = RenoState.CONGESTION_AVOIDANCE;
-                lastAck = recvdAckNo/mss;
+                // segments up to the new lastAck can never be retransmitted by checkTimeout anymore,
+                // data timers go by the segment's index like the buffer
+                for(int i = lastAck + 1; i <= acked; i++)
+                    scheduler.cancelTimer(timers.remove(i));
+                // acknowledged segments are let go, a rolled back run cuts them from the file again
+                buffer.releaseBefore(acked + 1, lastSent);
+                lastAck = acked;
                 dupAcks = 0;
+                // the oldest segment's timer ran out while an older one was missing, it is overdue and goes again now
+                if(lastAck < lastSent && timers.get(lastAck + 1) == null)
+                    sendSegment(lastAck + 1);
                 calculateCongestionWindow();
                 sendData();
 
                 // this means the last ack has arrived, file transfer completed
-                if(lastSent == buffer.size() - 1 && lastAck == buffer.size() - 1) {
+                if(lastSent == segmentCount - 1 && lastAck == segmentCount - 1) {
                     state = State.FIN_WAIT_1;
                     terminateConnection();
                 }
             }
             // check if the receiver expected the same packet, which indicates this is a duplicate ack
-            else if(recvdAckNo/mss == lastAck) {
+            else if(acked == lastAck) {
                 dupAcks++;
                 dupAckCount ++;
 
                 // fast retransmission
                 if(dupAcks == 3) {
-                    sendPacket(buffer.get(recvdAckNo/mss));
+                    sendSegment(lastAck + 1);
 
                     // cwnd drops
                     ssthresh = cwnd;
@@ -213,8 +326,13 @@ public class TCPsender {
      */
     public void receive(SimplePacket packet) {
 
-        TCPmessage message = new TCPmessage(0, 0, 0, 0);
-        message = message.deserialize(packet.getPayload());
+        // the message is only read here, so it goes back to the pool at the end,
+        // with the object encoding it is the packet's own and just read in place
+        TCPmessage message;
+        if(encoding == TCPmessage.Encoding.OBJECT)
+            message = packet.getMessage();
+        else
+            message = scheduler.acquireMessage().deserialize(packet);
 
         receivedPacketCount ++;
         receivedDataSize += message.getLength();
@@ -222,14 +340,13 @@ public class TCPsender {
         printStat(message, "rcv");
 
         switch(state) {
-            case State.SYN_SENT:
+            case SYN_SENT:
                 initWaitForAck(message);
-                state = State.ESTABLISHED;
                 break;
-            case State.ESTABLISHED:
+            case ESTABLISHED:
                 processPacket(message);
                 break;
-            case State.FIN_WAIT_1:
+            case FIN_WAIT_1:
                 // if received ack of fin from receiver, enter termination function
                 if(message.isACK() && message.isFIN()) 
                     terminateConnectionResponse();
@@ -238,6 +355,8 @@ public class TCPsender {
                 break;
         }
 
+        if(encoding == TCPmessage.Encoding.BYTES)
+            scheduler.releaseMessage(message);
     }
 
     /**
@@ -245,54 +364,78 @@ public class TCPsender {
      */
     private void calculateCongestionWindow() {
         switch(reno) {
-            case RenoState.SLOW_START:
+            case SLOW_START:
                 cwnd++;
                 if(cwnd == ssthresh)
                     reno = RenoState.CONGESTION_AVOIDANCE;
                 break;
-            case RenoState.CONGESTION_AVOIDANCE:
+            case CONGESTION_AVOIDANCE:
                 cwnd = (int) (cwnd + 1/cwnd);
                 break;
-            case RenoState.FAST_RECOVERY:
+            case FAST_RECOVERY:
                 cwnd++;
                 break;
         }
 
     }
 
-    /** 
-     * The data in the file is all put into the buffer first 
-    */
-    private void dataIntoBuffer() {
-
-        FileInputStream fileIn = null;
-        try{
-            File file = new File(filename);
-            fileIn = new FileInputStream(file);
-            byte[] segment = new byte[mss];
-            int segLength = fileIn.read(segment);
-
-            // put all segments into buffer
-            while(segLength != -1) {
-
-                // build the TCP segment to be put in buffer
-                byte[] payload = Arrays.copyOf(segment, segLength);
-                TCPmessage TCPsegment = new TCPmessage(sequenceNo * mss, expRcvNo, segLength, scheduler.getCurrentTime());
-                TCPsegment.setPayload(payload);
-                TCPsegment.setFlag('A');
-
-                // add to buffer
-                buffer.add(sequenceNo, TCPsegment);
-
-                sequenceNo ++;
-                segLength = fileIn.read(segment);
-
+    /**
+     * maps the input file, segments are only cut from it as they are first sent
+     */
+    private void openSource() {
+
+        dataStart = sequenceNo;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            if(fileSize > Integer.MAX_VALUE) {
+                System.out.println("File too large");
+                fileSize = 0;
+                return;
             }
-        } catch (FileNotFoundException e) {
+            // virtual payloads only need the length, the mapping stays valid once the channel is closed
+            if(payloadMode == TCPmessage.Payload.REAL)
+                file = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        } catch (NoSuchFileException e) {
             System.out.println("File not found");
+            return;
         } catch (IOException e) {
             System.out.println("Error when reading file");
+            return;
+        }
+
+        segmentCount = (int) ((fileSize + mss - 1) / mss);
+        if(payloadMode == TCPmessage.Payload.VIRTUAL) {
+            for(int i = 0; i < segmentCount; i++)
+                digest.add(segmentSeq(i), segmentLength(i));
+        }
+        // the data takes a sequence number per byte, the FIN comes after it
+        sequenceNo += (int) fileSize;
+    }
+
+    private int segmentLength(int index) {
+        return (int) Math.min(mss, fileSize - (long) index * mss);
+    }
+
+    /**
+     * sends segment index of the file, cut again from the file if the buffer doesn't hold it
+     */
+    private void sendSegment(int index) {
+        TCPmessage TCPsegment = buffer.get(index);
+        if(TCPsegment != null) {
+            sendPacket(TCPsegment);
+            return;
         }
+
+        // a recycled message reading the mapping at an offset, the data isn't copied here or in the segment's copies
+        int segLength = segmentLength(index);
+        TCPsegment = scheduler.acquireMessage().reset(segmentSeq(index), expRcvNo, segLength, scheduler.getCurrentTime());
+        if(file != null)
+            TCPsegment.setPayload(file, index * mss, segLength);
+        TCPsegment.setFlag('A');
+        sendPacket(TCPsegment);
+        // the buffer owns it from now on, one below the oldest it keeps goes back right away
+        if(!buffer.put(index, TCPsegment))
+            scheduler.releaseMessage(TCPsegment);
     }
 
     /**
@@ -308,9 +451,9 @@ public class TCPsender {
 
         calculateCongestionWindow();
         int count = 0;
-        while(lastSent - lastAck <= cwnd) {
+        while(lastSent - lastAck <= cwnd && lastSent + 1 < segmentCount) {
             lastSent++;
-            sendPacket(buffer.get(lastSent));    
+            sendSegment(lastSent);
             count++;
         }
         return count;
@@ -321,16 +464,79 @@ public class TCPsender {
 
         message.setAcknowledgment(expRcvNo); // expected seqNo from receiver will be different, build packet only when sending
         message.setTimestamp(scheduler.getCurrentTime());
-        byte[] stream = message.serialize();
-        SimplePacket TCPpacket = new SimplePacket(sourceID, destinationID, stream);
+        SimplePacket TCPpacket = buildPacket(message);
+        TCPpacket.setRoute(route);
 
         node.send(TCPpacket);
         stat.addSentData(1, message.getLength());
         stat.printPackets(message, "snd", scheduler.getCurrentTime(), verbose);
 
-        Event timeoutE = new Event(TCPpacket, message.getSequenceNo(), message.getLength(), Event.EventType.TIMEOUT_CHECK, scheduler.getCurrentTime() + timeout);
-        scheduler.schedule(timeoutE);
+        // the timeout keeps the packet for a retransmission
+        TCPpacket.retain();
+        Event timeoutE = scheduler.acquireEvent().reset(TCPpacket, message.getSequenceNo(), message.getLength(), Event.EventType.TIMEOUT_CHECK, SimTime.add(scheduler.getCurrentTime(), SimTime.fromMillis(timeout)), null, null);
+        startTimer(timerIndex(message.getSequenceNo(), message.hasData()), timeoutE);
+
+        scheduler.releasePacket(TCPpacket);
+    }
+
+    private SimplePacket buildPacket(TCPmessage message) {
+        if(encoding == TCPmessage.Encoding.BYTES) {
+            // a retransmission goes out in the packet its timer holds if nothing else holds that
+            // packet any more (it isn't in flight), only the header is written again
+            SimplePacket packet = timedPacket(timerIndex(message.getSequenceNo(), message.hasData()));
+            if(packet != null && packet.hasOneHolder() && message.rewriteHeader(packet)) {
+                packet.retain();
+                return packet;
+            }
+            packet = scheduler.acquirePacket(sourceID, destinationID, TCPmessage.HEADER_LENGTH + message.getLength());
+            message.serialize(packet.getBuffer());
+            return packet;
+        }
+
+        if(checksums)
+            message.updateChecksum();
+        return scheduler.acquirePacket(sourceID, destinationID, message);
+    }
+
+    /**
+     * @return the packet the pending retransmission timer at index holds, null if there is no timer
+     */
+    private SimplePacket timedPacket(int index) {
+        TimerWheel.Timer timer = timers.get(index);
+        if(timer == null || !timer.isPending())
+            return null;
+        return timer.getEvent().getPacket();
+    }
+
+    /**
+     * (re)starts the retransmission timer at index, an older timer for it is cancelled
+     */
+    private void startTimer(int index, Event timeoutE) {
+        scheduler.cancelTimer(timers.get(index));
+        timers.put(index, scheduler.scheduleTimer(scheduler.stamp(timeoutE, node.getIndex())));
+    }
+
+    /**
+     * @return where timers keeps the timer of the segment at seqNo: a data segment's index in the file,
+     * like the buffer. The handshake, FIN and closing ack carry no data and take the negative indexes
+     * by sequence number, which stay the same when the file is opened between a timer's start and end
+     */
+    private int timerIndex(int seqNo, boolean data) {
+        return data ? segmentIndex(seqNo) : -1 - seqNo;
+    }
+
+    /**
+     * @return the index in the file of the data segment at seqNo, what the buffer and timers go by
+     */
+    private int segmentIndex(int seqNo) {
+        return (seqNo - dataStart) / mss;
+    }
 
+    /**
+     * @return the sequence number of segment index of the file, the other way around from segmentIndex
+     */
+    private int segmentSeq(int index) {
+        return dataStart + index * mss;
     }
 
     /**
@@ -346,7 +552,7 @@ public class TCPsender {
         StringBuilder output = new StringBuilder();
         output.append(sndRcv);
         output.append(" ");
-        output.append(scheduler.getCurrentTime());
+        output.append(SimTime.toMillis(scheduler.getCurrentTime()));
         output.append(" ");
         if(packet.isSYN())
             output.append("S");
@@ -382,9 +588,9 @@ public class TCPsender {
      * recalculate timeout for every ack
      * @param dataTime
      */
-    public void recalculateTimeout(double dataTime) {
-        double current = scheduler.getCurrentTime();
-        double srtt = current - dataTime;
+    public void recalculateTimeout(long dataTime) {
+        long current = scheduler.getCurrentTime();
+        double srtt = SimTime.toMillis(current - dataTime);
         double sdev = Math.abs(srtt - ertt);
         ertt = timeoutCoA * ertt + (1 - timeoutCoA) * srtt;
         edev = timeoutCoB * edev + (1 - timeoutCoB) * sdev;
@@ -407,14 +613,17 @@ public class TCPsender {
     */
     public void terminateConnectionResponse() {
 
+        // the receiver answered the FIN, stop its timer
+        scheduler.cancelTimer(timers.remove(timerIndex(sequenceNo - 1, false)));
+
         TCPmessage finMessage2 = new TCPmessage(sequenceNo, expRcvNo, 0, scheduler.getCurrentTime());
         finMessage2.setFlag('A');
         sendPacket(finMessage2);
         sentDataSize += finMessage2.getLength();
         sentPacketCount ++;
         state = State.TIME_WAIT;
-        Event waitandclose = new Event(Event.EventType.TIME_WAIT, scheduler.getCurrentTime() + segmentLifetime);
-        scheduler.schedule(waitandclose);
+        Event waitandclose = new Event(Event.EventType.TIME_WAIT, SimTime.add(scheduler.getCurrentTime(), SimTime.fromMillis(segmentLifetime)));
+        scheduler.schedule(scheduler.stamp(waitandclose, node.getIndex()));
     }
     
     /**
@@ -422,18 +631,25 @@ public class TCPsender {
      */
     public void checkTimeout(SimplePacket packet, int seqNo, int length) {
 
-        if(seqNo / mss == lastAck + 1) {
+        // this timer just fired, its handle is gone
+        timers.remove(timerIndex(seqNo, length > 0));
+
+        // the oldest segment not acknowledged is sent again, the handshake and FIN only while they wait for their answer
+        boolean due = length > 0 ? segmentIndex(seqNo) == lastAck + 1
+                : seqNo == sequenceNo - 1 && (state == State.SYN_SENT || state == State.FIN_WAIT_1);
+        if(due) {
             node.send(packet);
             sentDataSize += length;
             sentPacketCount++;
 
-            Event timeoutE = new Event(packet, seqNo, length, Event.EventType.TIMEOUT_CHECK, scheduler.getCurrentTime() + timeout);
-            scheduler.schedule(timeoutE);
+            packet.retain();
+            Event timeoutE = scheduler.acquireEvent().reset(packet, seqNo, length, Event.EventType.TIMEOUT_CHECK, SimTime.add(scheduler.getCurrentTime(), SimTime.fromMillis(timeout)), null, null);
+            startTimer(timerIndex(seqNo, length > 0), timeoutE);
         }
     }
 
     /**
-     * return stats to TCPend
+     * return stats for the run's report
      * @return
      */
     public int[] returnStats() {
@@ -443,6 +659,90 @@ public class TCPsender {
         return result;
     }
 
+    public Node getNode() {
+        return this.node;
+    }
+
+    /**
+     * @return the congestion window in segments
+     */
+    public int getCongestionWindow() {
+        return this.cwnd;
+    }
+
+    /**
+     * @return the smoothed rtt estimate in ms
+     */
+    public double getEstimatedRtt() {
+        return this.ertt;
+    }
+
+    /**
+     * sender state for optimistic runs, the buffer isn't saved, segments it let go are cut again
+     */
+    private static class SavedState {
+        int cwnd, sequenceNo, expRcvNo, lastAck, lastSent, dupAcks, ssthresh;
+        State state;
+        RenoState reno;
+        double timeout, ertt, edev;
+        TimerRing timers;
+        int sentDataSize, sentPacketCount, receivedDataSize, receivedPacketCount, retransmissionCount, dupAckCount;
+        TCPStat stat;
+        PayloadDigest digest;
+    }
+
+    public Object saveState() {
+        SavedState s = new SavedState();
+        s.cwnd = cwnd;
+        s.sequenceNo = sequenceNo;
+        s.expRcvNo = expRcvNo;
+        s.lastAck = lastAck;
+        s.lastSent = lastSent;
+        s.dupAcks = dupAcks;
+        s.ssthresh = ssthresh;
+        s.state = state;
+        s.reno = reno;
+        s.timeout = timeout;
+        s.ertt = ertt;
+        s.edev = edev;
+        s.timers = new TimerRing(timers);
+        s.sentDataSize = sentDataSize;
+        s.sentPacketCount = sentPacketCount;
+        s.receivedDataSize = receivedDataSize;
+        s.receivedPacketCount = receivedPacketCount;
+        s.retransmissionCount = retransmissionCount;
+        s.dupAckCount = dupAckCount;
+        s.stat = new TCPStat(stat);
+        s.digest = new PayloadDigest(digest);
+        return s;
+    }
+
+    public void restoreState(Object state) {
+        SavedState s = (SavedState) state;
+        cwnd = s.cwnd;
+        sequenceNo = s.sequenceNo;
+        expRcvNo = s.expRcvNo;
+        lastAck = s.lastAck;
+        buffer.rewind(lastAck + 1);
+        lastSent = s.lastSent;
+        dupAcks = s.dupAcks;
+        ssthresh = s.ssthresh;
+        this.state = s.state;
+        reno = s.reno;
+        timeout = s.timeout;
+        ertt = s.ertt;
+        edev = s.edev;
+        timers = s.timers;
+        sentDataSize = s.sentDataSize;
+        sentPacketCount = s.sentPacketCount;
+        receivedDataSize = s.receivedDataSize;
+        receivedPacketCount = s.receivedPacketCount;
+        retransmissionCount = s.retransmissionCount;
+        dupAckCount = s.dupAckCount;
+        stat = s.stat;
+        digest = new PayloadDigest(s.digest);
+    }
+
 }
 
 /**
@@ -0,0 +1,162 @@
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Optimistic (Time Warp) parallel engine.
+ * Partitions are cut the same way as for the conservative engine, but each one runs its events
+ * without waiting and rolls back when it turns out it went too far, see TimeWarpScheduler.
+ * That pays off where the cut links have little or no latency, which leaves the conservative
+ * engine almost no lookahead.
+ *
+ * Every GVT_INTERVAL events the partitions meet at a barrier, where GVT is the earliest time
+ * still pending or in flight anywhere. No partition can be rolled back before it, so history
+ * older than GVT is dropped and the receiver's held back file writes up to it are done.
+ */
+public class TimeWarpEngine extends ParallelEngine {
+
+    private static final int GVT_INTERVAL = 256;   // events per partition between GVT rounds
+
+    // only written by the barrier action
+    private long gvt = 0;
+    private boolean done = false;
+    private long gvtRounds = 0;
+
+    private volatile RuntimeException failure = null;
+
+    TimeWarpEngine(SimpleNetwork network, int partitions) {
+        super(network, partitions, Scheduler.QueueType.HEAP);
+
+        // a link's departure clock belongs to the partition sending on it
+        for(Link link: network.getLinks())
+            scheduler(getProcess(link.getStartNode())).addCheckpointable(link);
+    }
+
+    @Override
+    protected LogicalProcess createProcess(int id, Scheduler.QueueType queueType) {
+        return new LogicalProcess(id, new TimeWarpScheduler());
+    }
+
+    private static TimeWarpScheduler scheduler(LogicalProcess lp) {
+        return (TimeWarpScheduler) lp.getScheduler();
+    }
+
+    @Override
+    public void run(TCPsender sender, TCPrecver receiver) {
+        scheduler(getProcess(sender.getNode())).addCheckpointable(sender);
+        scheduler(getProcess(receiver.getNode())).addCheckpointable(receiver);
+
+        LogicalProcess[] processes = getProcesses();
+        CyclicBarrier gvtBarrier = new CyclicBarrier(processes.length, this::computeGvt);
+
+        Thread[] threads = new Thread[processes.length];
+        for(int i = 0; i < threads.length; i++) {
+            TimeWarpScheduler sched = scheduler(processes[i]);
+            sched.setEndTime(getEndTime());
+            threads[i] = new Thread(() -> work(sched, sender, receiver, gvtBarrier), "partition-" + i);
+            threads[i].start();
+        }
+
+        for(Thread thread: threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("interrupted while waiting for partitions");
+                return;
+            }
+        }
+
+        if(this.failure != null)
+            throw this.failure;
+    }
+
+    private void work(TimeWarpScheduler sched, TCPsender sender, TCPrecver receiver, CyclicBarrier gvtBarrier) {
+        try {
+            while(true) {
+                // a failing partition keeps going through the barrier so the others can stop with it
+                try {
+                    for(int n = 0; n < GVT_INTERVAL; n++) {
+                        sched.drainInbox();
+                        if(!sched.processNext(sender, receiver))
+                            break;
+                    }
+                    sched.drainInbox();
+                } catch (RuntimeException e) {
+                    this.failure = e;
+                }
+
+                gvtBarrier.await();
+                if(this.failure != null)
+                    return;
+
+                // at the end GVT is infinite and everything left commits
+                sched.fossilCollect(this.gvt);
+                if(this.done)
+                    return;
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * barrier action, every partition is stopped so pending events and inboxes hold everything in flight
+     */
+    private void computeGvt() {
+        long min = SimTime.NEVER;
+        for(LogicalProcess lp: getProcesses())
+            min = Math.min(min, scheduler(lp).localMinimum());
+
+        this.gvtRounds++;
+        this.gvt = min;
+        // past the end of the run nothing is run, so everything before it is committed
+        if(min == SimTime.NEVER || min > getEndTime() || this.failure != null)
+            this.done = true;
+    }
+
+    @Override
+    public long getEventCount() {
+        long total = 0;
+        for(LogicalProcess lp: getProcesses())
+            total += scheduler(lp).getEventsProcessed();
+        return total;
+    }
+
+    public long getRolledBackCount() {
+        long total = 0;
+        for(LogicalProcess lp: getProcesses())
+            total += scheduler(lp).getEventsRolledBack();
+        return total;
+    }
+
+    /**
+     * @return the share of processed events that were kept, 1 if nothing was rolled back
+     */
+    public double getEfficiency() {
+        long processed = getEventCount();
+        return processed == 0 ? 1.0 : (double) (processed - getRolledBackCount()) / processed;
+    }
+
+    @Override
+    public String getReport(int testNo) {
+        long processed = getEventCount();
+        long rolledBack = getRolledBackCount();
+        long rollbacks = 0;
+        long antiMessages = 0;
+        for(LogicalProcess lp: getProcesses()) {
+            rollbacks += scheduler(lp).getRollbacks();
+            antiMessages += scheduler(lp).getAntiMessagesSent();
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("Test " + testNo + ": time warp engine, " + getProcesses().length + " partitions, GVT rounds: " + this.gvtRounds + "\n");
+        report.append("  events processed: " + processed + ", rolled back: " + rolledBack + ", committed: " + (processed - rolledBack) + "\n");
+        report.append("  rollbacks: " + rollbacks + " (" + String.format("%.4f", processed == 0 ? 0.0 : (double) rollbacks / processed) + " per event), anti-messages: " + antiMessages + "\n");
+        report.append("  efficiency: " + String.format("%.4f", getEfficiency()) + "\n");
+        for(LogicalProcess lp: getProcesses()) {
+            TimeWarpScheduler sched = scheduler(lp);
+            report.append("  " + lp + ", processed: " + sched.getEventsProcessed() + ", rolled back: " + sched.getEventsRolledBack() + ", rollbacks: " + sched.getRollbacks() + "\n");
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,344 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Scheduler of one optimistic (Time Warp) partition.
+ * Events run as soon as they are the earliest pending one, without waiting for the other partitions.
+ * Before each event the state of everything the partition owns is saved, and everything the event
+ * schedules, cancels or sends is logged with it. When an event arrives in the partition's past
+ * (a straggler), or an event that already ran gets cancelled by an anti-message, the partition
+ * rolls back: the saved state comes back, the events after that point go back to pending,
+ * local sends and cancels are undone and remote sends are cancelled with anti-messages.
+ * History older than GVT can never be rolled back, fossilCollect drops it.
+ *
+ * Events are kept until fossil collection, so nothing is recycled through the pools here,
+ * and timers are plain events since a cancel has to be undoable.
+ */
+public class TimeWarpScheduler extends Scheduler {
+
+    private PriorityQueue<Event> pending;
+    private ArrayDeque<Processed> processed;        // in execution order, so also in time order
+    private Processed current = null;               // event being run, its sends get logged on it
+    private ConcurrentLinkedQueue<Message> inbox;
+    private ArrayList<Checkpointable> owned;
+    private long until = SimTime.NEVER;             // in ns, events after it are left pending
+
+    // stats
+    private long eventsProcessed = 0;
+    private long eventsRolledBack = 0;
+    private long rollbacks = 0;
+    private long antiMessagesSent = 0;
+
+    private static final int SCHEDULED = 0;
+    private static final int CANCELLED = 1;
+    private static final int SENT = 2;
+
+    /**
+     * an event that ran, with the state from before it and what it did
+     */
+    private static class Processed {
+        private Event event;
+        private long previousTime;
+        private Object[] states;
+        private ArrayList<Output> outputs = null;
+
+        Processed(Event event, long previousTime, Object[] states) {
+            this.event = event;
+            this.previousTime = previousTime;
+            this.states = states;
+        }
+    }
+
+    private static class Output {
+        private int kind;
+        private Event event;
+        private TimeWarpScheduler target;   // for SENT
+
+        Output(int kind, Event event, TimeWarpScheduler target) {
+            this.kind = kind;
+            this.event = event;
+            this.target = target;
+        }
+    }
+
+    /**
+     * event or anti-message from another partition
+     */
+    private static class Message {
+        private Event event;
+        private boolean anti;
+
+        Message(Event event, boolean anti) {
+            this.event = event;
+            this.anti = anti;
+        }
+    }
+
+    TimeWarpScheduler() {
+        super();
+        this.pending = new PriorityQueue<>();
+        this.processed = new ArrayDeque<>();
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.owned = new ArrayList<>();
+    }
+
+    /**
+     * adds state that belongs to this partition and has to roll back with it
+     */
+    public void addCheckpointable(Checkpointable c) {
+        this.owned.add(c);
+    }
+
+    @Override
+    public boolean isOptimistic() {
+        return true;
+    }
+
+    @Override
+    public void schedule(Event e) {
+        this.pending.add(e);
+        log(SCHEDULED, e, null);
+    }
+
+    @Override
+    public TimerWheel.Timer scheduleTimer(Event e) {
+        schedule(e);
+        return new TimerWheel.Timer(e, 0);
+    }
+
+    @Override
+    public void cancelTimer(TimerWheel.Timer timer) {
+        if(timer == null)
+            return;
+        if(this.pending.remove(timer.getEvent()))
+            log(CANCELLED, timer.getEvent(), null);
+    }
+
+    @Override
+    public void sendTo(Scheduler target, Event e) {
+        log(SENT, e, (TimeWarpScheduler) target);
+        target.post(e);
+    }
+
+    @Override
+    public void post(Event e) {
+        this.inbox.add(new Message(e, false));
+    }
+
+    private void postAnti(Event e) {
+        this.inbox.add(new Message(e, true));
+    }
+
+    private void log(int kind, Event e, TimeWarpScheduler target) {
+        // sends made outside of an event (the first handshake) are never undone
+        if(this.current == null)
+            return;
+        if(this.current.outputs == null)
+            this.current.outputs = new ArrayList<>();
+        this.current.outputs.add(new Output(kind, e, target));
+    }
+
+    // kept events can't be recycled, so the pools are bypassed
+
+    @Override
+    public Event acquireEvent() {
+        return new Event(null, 0);
+    }
+
+    @Override
+    public void release(Event e) {
+    }
+
+    @Override
+    public SimplePacket acquirePacket(short source, short dest, int payloadLength) {
+        SimplePacket packet = new SimplePacket();
+        packet.reset(source, dest, payloadLength);
+        return packet;
+    }
+
+    @Override
+    public SimplePacket acquirePacket(short source, short dest, TCPmessage message) {
+        SimplePacket packet = new SimplePacket();
+        packet.reset(source, dest, message);
+        return packet;
+    }
+
+    @Override
+    public void releasePacket(SimplePacket packet) {
+    }
+
+    @Override
+    public TCPmessage acquireMessage() {
+        return new TCPmessage(0, 0, 0, 0);
+    }
+
+    @Override
+    public void releaseMessage(TCPmessage message) {
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.pending.isEmpty() && this.inbox.isEmpty();
+    }
+
+    /**
+     * takes in what other partitions sent, rolling back for stragglers and anti-messages
+     */
+    @Override
+    public void drainInbox() {
+        Message m = this.inbox.poll();
+        while(m != null) {
+            if(!m.anti) {
+                if(!this.processed.isEmpty() && this.processed.peekLast().event.compareTo(m.event) > 0)
+                    rollbackAfter(m.event);
+                this.pending.add(m.event);
+            }
+            // the event is pending or has run, messages from one partition come in the order they were sent
+            else if(!this.pending.remove(m.event)) {
+                rollbackTo(m.event);
+                this.pending.remove(m.event);
+            }
+            m = this.inbox.poll();
+        }
+    }
+
+    /**
+     * @return the earliest time this partition can still be rolled back to
+     */
+    public long localMinimum() {
+        long min = this.pending.isEmpty() ? SimTime.NEVER : this.pending.peek().getTime();
+        for(Message m: this.inbox)
+            min = Math.min(min, m.event.getTime());
+        return min;
+    }
+
+    /**
+     * @param until in ns, the run stops before the first event after it
+     */
+    public void setEndTime(long until) {
+        this.until = until;
+    }
+
+    /**
+     * runs the earliest pending event
+     * @return false if there was none before the end of the run
+     */
+    public boolean processNext(TCPsender sender, TCPrecver receiver) {
+        Event e = this.pending.peek();
+        if(e == null || e.getTime() > this.until)
+            return false;
+        this.pending.poll();
+
+        Object[] states = new Object[this.owned.size()];
+        for(int i = 0; i < states.length; i++)
+            states[i] = this.owned.get(i).saveState();
+
+        this.current = new Processed(e, getCurrentTime(), states);
+        this.processed.add(this.current);
+        setCurrentTime(e.getTime());
+        try {
+            Simulation.handleEvent(e, sender, receiver);
+        } finally {
+            this.current = null;
+        }
+        this.eventsProcessed++;
+        return true;
+    }
+
+    /**
+     * undoes every event that ran after straggler would have, in the order of Event.compareTo
+     */
+    private void rollbackAfter(Event straggler) {
+        Processed first = null;
+        Iterator<Processed> it = this.processed.descendingIterator();
+        while(it.hasNext()) {
+            Processed p = it.next();
+            if(p.event.compareTo(straggler) <= 0)
+                break;
+            first = p;
+        }
+        rollback(first);
+    }
+
+    private void rollbackTo(Event e) {
+        Iterator<Processed> it = this.processed.descendingIterator();
+        while(it.hasNext()) {
+            Processed p = it.next();
+            if(p.event == e) {
+                rollback(p);
+                return;
+            }
+        }
+    }
+
+    /**
+     * undoes first and everything after it
+     */
+    private void rollback(Processed first) {
+        if(first == null)
+            return;
+        this.rollbacks++;
+
+        Processed p;
+        do {
+            p = this.processed.pollLast();
+            this.pending.add(p.event);
+            this.eventsRolledBack++;
+
+            // newest first, so taking back the stamps of what it scheduled and sent leaves each node's
+            // count where it was and the events get the same stamps when they run again
+            if(p.outputs != null) {
+                for(int i = p.outputs.size() - 1; i >= 0; i--) {
+                    Output o = p.outputs.get(i);
+                    switch(o.kind) {
+                        case SCHEDULED:
+                            this.pending.remove(o.event);
+                            unstamp(o.event);
+                            break;
+                        case CANCELLED:
+                            this.pending.add(o.event);
+                            break;
+                        case SENT:
+                            o.target.postAnti(o.event);
+                            this.antiMessagesSent++;
+                            unstamp(o.event);
+                            break;
+                    }
+                }
+            }
+        } while(p != first);
+
+        for(int i = 0; i < this.owned.size(); i++)
+            this.owned.get(i).restoreState(first.states[i]);
+        setCurrentTime(first.previousTime);
+    }
+
+    /**
+     * drops the history before gvt and lets the owned state commit up to it
+     */
+    public void fossilCollect(long gvt) {
+        while(!this.processed.isEmpty() && this.processed.peekFirst().event.getTime() < gvt)
+            this.processed.pollFirst();
+        for(Checkpointable c: this.owned)
+            c.commit(gvt);
+    }
+
+    public long getEventsProcessed() {
+        return this.eventsProcessed;
+    }
+
+    public long getEventsRolledBack() {
+        return this.eventsRolledBack;
+    }
+
+    public long getRollbacks() {
+        return this.rollbacks;
+    }
+
+    public long getAntiMessagesSent() {
+        return this.antiMessagesSent;
+    }
+}
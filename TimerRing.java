@@ -0,0 +1,84 @@
+/**
+ * The sender's retransmission timer handles in a ring indexed by segment number, like SegmentRing.
+ * The capacity is a power of two that doubles when a pending timer sits in the slot another
+ * segment needs, so it follows the window and no handle is boxed or put in a map entry.
+ * Each slot remembers its segment number, handles are taken out once their timer fires or is cancelled.
+ */
+public class TimerRing {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private TimerWheel.Timer[] slots;
+    private int[] indexes;      // segment number of the timer in each slot
+
+    TimerRing() {
+        this.slots = new TimerWheel.Timer[MIN_CAPACITY];
+        this.indexes = new int[MIN_CAPACITY];
+    }
+
+    // copy with the same handles, for saved state
+    TimerRing(TimerRing other) {
+        this.slots = other.slots.clone();
+        this.indexes = other.indexes.clone();
+    }
+
+    // copy for a forked run, with the copy's handles, a timer that isn't pending anymore has none
+    TimerRing(TimerRing other, ForkContext context) {
+        this.slots = new TimerWheel.Timer[other.slots.length];
+        this.indexes = other.indexes.clone();
+        for(int i = 0; i < this.slots.length; i++) {
+            if(other.slots[i] != null)
+                this.slots[i] = context.timer(other.slots[i]);
+        }
+    }
+
+    /**
+     * @return the timer of segment index, null if there is none
+     */
+    public TimerWheel.Timer get(int index) {
+        int slot = index & (this.slots.length - 1);
+        if(this.indexes[slot] != index)
+            return null;
+        return this.slots[slot];
+    }
+
+    /**
+     * keeps the timer of segment index, in place of one it had before
+     */
+    public void put(int index, TimerWheel.Timer timer) {
+        int slot = index & (this.slots.length - 1);
+        while(this.slots[slot] != null && this.indexes[slot] != index) {
+            resize(this.slots.length * 2);
+            slot = index & (this.slots.length - 1);
+        }
+        this.slots[slot] = timer;
+        this.indexes[slot] = index;
+    }
+
+    /**
+     * @return the timer of segment index, which the ring doesn't keep anymore, null if there is none
+     */
+    public TimerWheel.Timer remove(int index) {
+        int slot = index & (this.slots.length - 1);
+        if(this.indexes[slot] != index)
+            return null;
+        TimerWheel.Timer timer = this.slots[slot];
+        this.slots[slot] = null;
+        return timer;
+    }
+
+    // timers kept in different slots stay apart in a ring twice as big
+    private void resize(int capacity) {
+        TimerWheel.Timer[] oldSlots = this.slots;
+        int[] oldIndexes = this.indexes;
+        this.slots = new TimerWheel.Timer[capacity];
+        this.indexes = new int[capacity];
+        for(int i = 0; i < oldSlots.length; i++) {
+            if(oldSlots[i] != null) {
+                int slot = oldIndexes[i] & (capacity - 1);
+                this.slots[slot] = oldSlots[i];
+                this.indexes[slot] = oldIndexes[i];
+            }
+        }
+    }
+}
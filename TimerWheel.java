@@ -0,0 +1,245 @@
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel for timer events (retransmission timeouts).
+ * Timers are hashed into slots by their expiry tick, level 0 has one slot per tick and every
+ * level above covers 256 times as much time. When the clock reaches a slot of a higher level
+ * its timers cascade down. Adding and cancelling a timer are O(1), cancelled timers are just
+ * unlinked from their slot and never come out of the wheel.
+ * Timers whose tick has been reached wait in a small heap ordered by their exact time.
+ * Handles are recycled, so a handle is only valid until its timer fires or is cancelled.
+ */
+public class TimerWheel {
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+
+    private long tickLength;            // in ns
+    private long currentTick;
+    private Timer[][] slots;            // heads of the doubly linked timer lists
+    private int[] levelCount;           // timers in each level, to skip empty stretches
+    private int wheelCount;             // timers in the slots
+    private PriorityQueue<Timer> due;   // tick reached, waiting for their exact time
+    private int liveCount;              // timers not fired or cancelled yet
+    private ObjectPool<Timer> handles;
+
+    /**
+     * Handle for a scheduled timer, keep it to cancel the timer.
+     */
+    public static class Timer implements Comparable<Timer> {
+        private Event event;
+        private long tick;
+        private int level = -1;         // -1 when not in a slot
+        private Timer prev;
+        private Timer next;
+        private boolean cancelled = false;
+        private boolean fired = false;
+
+        Timer(Event event, long tick) {
+            this.event = event;
+            this.tick = tick;
+        }
+
+        private void reset(Event event, long tick) {
+            this.event = event;
+            this.tick = tick;
+            this.level = -1;
+            this.prev = null;
+            this.next = null;
+            this.cancelled = false;
+            this.fired = false;
+        }
+
+        public Event getEvent() {
+            return this.event;
+        }
+
+        public boolean isPending() {
+            return !this.cancelled && !this.fired;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return this.event.compareTo(other.event);
+        }
+    }
+
+    TimerWheel(long tickLength) {
+        this.tickLength = tickLength;
+        this.currentTick = 0;
+        this.slots = new Timer[LEVELS][SLOTS];
+        this.levelCount = new int[LEVELS];
+        this.wheelCount = 0;
+        this.due = new PriorityQueue<>();
+        this.liveCount = 0;
+        this.handles = new ObjectPool<>(() -> new Timer(null, 0));
+    }
+
+    private long toTick(long time) {
+        return Math.floorDiv(time, this.tickLength);
+    }
+
+    public Timer add(Event e) {
+        Timer timer = this.handles.acquire();
+        timer.reset(e, toTick(e.getTime()));
+        insert(timer);
+        this.liveCount++;
+        return timer;
+    }
+
+    /**
+     * puts the timer on the lowest level whose slots still cover its expiry
+     */
+    private void insert(Timer timer) {
+        if(timer.tick <= this.currentTick) {
+            this.due.add(timer);
+            return;
+        }
+
+        // lowest level where the expiry and the clock only differ in that level's digit
+        int level = 0;
+        while(level < LEVELS - 1 && (timer.tick >>> (SLOT_BITS * (level + 1))) != (this.currentTick >>> (SLOT_BITS * (level + 1))))
+            level++;
+        int slot = (int) ((timer.tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+        timer.level = level;
+        timer.prev = null;
+        timer.next = this.slots[level][slot];
+        if(timer.next != null)
+            timer.next.prev = timer;
+        this.slots[level][slot] = timer;
+        this.levelCount[level]++;
+        this.wheelCount++;
+    }
+
+    private void unlink(Timer timer) {
+        int slot = (int) ((timer.tick >>> (SLOT_BITS * timer.level)) & SLOT_MASK);
+        if(timer.prev != null)
+            timer.prev.next = timer.next;
+        else
+            this.slots[timer.level][slot] = timer.next;
+        if(timer.next != null)
+            timer.next.prev = timer.prev;
+        this.levelCount[timer.level]--;
+        this.wheelCount--;
+        timer.level = -1;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    /**
+     * @return the cancelled timer's event, now owned by the caller, or null if it wasn't pending
+     */
+    public Event cancel(Timer timer) {
+        if(timer == null || !timer.isPending())
+            return null;
+        timer.cancelled = true;
+        this.liveCount--;
+        if(timer.level != -1)
+            unlink(timer);
+        else
+            this.due.remove(timer);     // the due heap only holds the current tick, this is short
+
+        Event e = timer.event;
+        timer.event = null;
+        this.handles.release(timer);
+        return e;
+    }
+
+    /**
+     * moves the clock forward to the tick holding time
+     */
+    public void advanceTo(long time) {
+        long target = toTick(time);
+        while(this.currentTick < target && this.wheelCount > 0)
+            step(target);
+        if(this.currentTick < target)
+            this.currentTick = target;
+    }
+
+    /**
+     * moves the clock forward until some timer is due
+     */
+    public void advanceToNextTimer() {
+        while(firstDue() == null && this.wheelCount > 0)
+            step(Long.MAX_VALUE);
+    }
+
+    private void step(long limit) {
+        // nothing below the lowest used level, jump straight to the tick before its next slot
+        int lowest = 0;
+        while(this.levelCount[lowest] == 0)
+            lowest++;
+        if(lowest > 0) {
+            long span = 1L << (SLOT_BITS * lowest);
+            long jump = ((this.currentTick / span) + 1) * span - 1;
+            if(jump > this.currentTick)
+                this.currentTick = Math.min(jump, limit);
+            if(this.currentTick >= limit)
+                return;
+        }
+
+        this.currentTick++;
+
+        // levels whose digit rolled over cascade down, highest first
+        int top = 0;
+        while(top < LEVELS - 1 && ((this.currentTick >>> (SLOT_BITS * (top + 1))) << (SLOT_BITS * (top + 1))) == this.currentTick)
+            top++;
+        for(int level = top; level >= 0; level--) {
+            int slot = (int) ((this.currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Timer timer = this.slots[level][slot];
+            while(timer != null) {
+                Timer next = timer.next;
+                unlink(timer);
+                insert(timer);
+                timer = next;
+            }
+        }
+    }
+
+    private Timer firstDue() {
+        return this.due.peek();
+    }
+
+    /**
+     * @return the earliest due timer's event, null if none
+     */
+    public Event peekDue() {
+        Timer timer = firstDue();
+        return timer == null ? null : timer.event;
+    }
+
+    public Event pollDue() {
+        Timer timer = firstDue();
+        if(timer == null)
+            return null;
+        this.due.poll();
+        timer.fired = true;
+        this.liveCount--;
+
+        Event e = timer.event;
+        timer.event = null;
+        this.handles.release(timer);
+        return e;
+    }
+
+    public boolean isEmpty() {
+        return this.liveCount == 0;
+    }
+
+    /**
+     * runs action on every pending timer, in the slots or due, without changing the wheel
+     */
+    public void forEachPending(Consumer<Timer> action) {
+        for(Timer[] level: this.slots) {
+            for(Timer head: level) {
+                for(Timer timer = head; timer != null; timer = timer.next)
+                    action.accept(timer);
+            }
+        }
+        this.due.forEach(action);
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The parsed network: node names and IDs, links with the parameters the topology gives them, and
+ * the routing tables. Nothing in it changes once built, so every run over a network shares one
+ * Topology, and a SimpleNetwork only keeps what a run changes or moves on top of it.
+ * Nodes are numbered hosts first, then routers, and links by the order they were added.
+ */
+public class Topology {
+
+    private final String[] names;       // by node index
+    private final short[] ids;
+    private final int hostCount;
+    private final int[] indexByID;      // -1 where no node has the ID
+    private final HashMap<String, Integer> indexByName;
+
+    // by link index
+    private final int[] linkFrom;
+    private final int[] linkTo;
+    private final int[] queueSizes;
+    private final int[] bandwidths;     // in Mbps
+    private final long[] latencies;     // in ns
+
+    private final RoutingTables routes;
+
+    private Topology(Builder builder) {
+        int n = builder.hostNames.size() + builder.routerNames.size();
+        this.hostCount = builder.hostNames.size();
+        this.names = new String[n];
+        this.ids = new short[n];
+        this.indexByName = new HashMap<>();
+        int range = 0;
+        for(int i = 0; i < n; i++) {
+            boolean host = i < this.hostCount;
+            this.names[i] = host ? builder.hostNames.get(i) : builder.routerNames.get(i - this.hostCount);
+            this.ids[i] = host ? builder.hostIDs.get(i) : builder.routerIDs.get(i - this.hostCount);
+            // where names or IDs repeat the first host, then the first router, keeps them
+            this.indexByName.putIfAbsent(this.names[i], i);
+            range = Math.max(range, this.ids[i] + 1);
+        }
+        this.indexByID = new int[range];
+        Arrays.fill(this.indexByID, -1);
+        for(int i = 0; i < n; i++) {
+            if(this.ids[i] >= 0 && this.indexByID[this.ids[i]] == -1)
+                this.indexByID[this.ids[i]] = i;
+        }
+
+        int m = builder.links.size();
+        this.linkFrom = new int[m];
+        this.linkTo = new int[m];
+        this.queueSizes = new int[m];
+        this.bandwidths = new int[m];
+        this.latencies = new long[m];
+        for(int i = 0; i < m; i++) {
+            PendingLink link = builder.links.get(i);
+            this.linkFrom[i] = link.from() < 0 ? this.hostCount - link.from() - 1 : link.from();
+            this.linkTo[i] = link.to() < 0 ? this.hostCount - link.to() - 1 : link.to();
+            this.queueSizes[i] = link.queueSize();
+            this.bandwidths[i] = link.bandwidth();
+            this.latencies[i] = link.latency();
+        }
+        int[] columnOf = new int[n];
+        for(int i = 0; i < n; i++)
+            columnOf[i] = this.ids[i] >= 0 && this.indexByID[this.ids[i]] == i ? this.ids[i] : -1;
+        this.routes = new RoutingTables(n, this.linkFrom, this.linkTo, columnOf, range);
+    }
+
+    public int getNodeCount() {
+        return this.names.length;
+    }
+
+    public int getHostCount() {
+        return this.hostCount;
+    }
+
+    public int getLinkCount() {
+        return this.linkFrom.length;
+    }
+
+    public String getName(int node) {
+        return this.names[node];
+    }
+
+    public short getID(int node) {
+        return this.ids[node];
+    }
+
+    /**
+     * @return index of the host or router called name, -1 if there is none
+     */
+    public int indexOf(String name) {
+        Integer index = this.indexByName.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return index of the node with ID, -1 if there is none
+     */
+    public int indexOf(short ID) {
+        if(ID < 0 || ID >= this.indexByID.length)
+            return -1;
+        return this.indexByID[ID];
+    }
+
+    /**
+     * @return the largest node ID plus one, the length of the tables indexed by ID
+     */
+    public int getIDRange() {
+        return this.indexByID.length;
+    }
+
+    public int getLinkFrom(int link) {
+        return this.linkFrom[link];
+    }
+
+    public int getLinkTo(int link) {
+        return this.linkTo[link];
+    }
+
+    public int getQueueSize(int link) {
+        return this.queueSizes[link];
+    }
+
+    public int getBandwidth(int link) {
+        return this.bandwidths[link];
+    }
+
+    /**
+     * @return latency in ns
+     */
+    public long getLatency(int link) {
+        return this.latencies[link];
+    }
+
+    /**
+     * @return next hops by node index and destination ID
+     */
+    public RoutingTables getRoutes() {
+        return this.routes;
+    }
+
+    /**
+     * @return index of the link going straight from one node to the other, -1 if there is none
+     */
+    public int linkBetween(int from, int to) {
+        return this.routes.linkBetween(from, to);
+    }
+
+    // a link between a host (i) or a router (-i-1), routers are only numbered once all hosts are in
+    private record PendingLink(int from, int to, int queueSize, int bandwidth, long latency) {}
+
+    /**
+     * collects hosts, routers and links in the order they come, build numbers them and routes
+     */
+    static class Builder {
+        private ArrayList<String> hostNames = new ArrayList<>();
+        private ArrayList<Short> hostIDs = new ArrayList<>();
+        private ArrayList<String> routerNames = new ArrayList<>();
+        private ArrayList<Short> routerIDs = new ArrayList<>();
+        private HashMap<String, Integer> hostByName = new HashMap<>();
+        private HashMap<String, Integer> routerByName = new HashMap<>();
+        private ArrayList<PendingLink> links = new ArrayList<>();
+
+        public void addHost(String name, short ID) {
+            this.hostByName.putIfAbsent(name, this.hostNames.size());
+            this.hostNames.add(name);
+            this.hostIDs.add(ID);
+        }
+
+        public void addRouter(String name, short ID) {
+            this.routerByName.putIfAbsent(name, -this.routerNames.size() - 1);
+            this.routerNames.add(name);
+            this.routerIDs.add(ID);
+        }
+
+        /**
+         * links the nodes called n1 and n2 both ways
+         * @param latency in ns
+         * @return false if a node isn't there or they are the same node
+         */
+        public boolean addLink(String n1, String n2, int queueSize, int bandwidth, long latency) {
+            Integer node1 = find(n1);
+            Integer node2 = find(n2);
+            if(node1 == null || node2 == null || node1.equals(node2))
+                return false;
+            this.links.add(new PendingLink(node1, node2, queueSize, bandwidth, latency));
+            this.links.add(new PendingLink(node2, node1, queueSize, bandwidth, latency));
+            return true;
+        }
+
+        private Integer find(String name) {
+            Integer node = this.hostByName.get(name);
+            return node != null ? node : this.routerByName.get(name);
+        }
+
+        /**
+         * @return the topology with its routing tables, found by one BFS per node, sources run in parallel
+         */
+        public Topology build() {
+            return new Topology(this);
+        }
+    }
+}